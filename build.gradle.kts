@@ -178,6 +178,20 @@ tasks.test {
 	}
 }
 
+val testNoErrorStackTrace by tasks.registering(Test::class) {
+	description = "Runs the error tests with Java stack traces disabled."
+	group = LifecycleBasePlugin.VERIFICATION_GROUP
+
+	testClassesDirs = sourceSets.test.get().output.classesDirs
+	classpath = sourceSets.test.get().runtimeClasspath
+
+	useJUnitPlatform()
+	systemProperty("cobalt.noErrorStackTrace", "true")
+	filter { includeTestsMatching("org.squiddev.cobalt.LuaErrorTest") }
+}
+
+tasks.check { dependsOn(testNoErrorStackTrace) }
+
 val benchmark by tasks.registering(JavaExec::class) {
 	description = "Run our benchmarking suite"
 
@@ -0,0 +1,33 @@
+package cc.tweaked.cobalt.internal;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.squiddev.cobalt.LuaValue;
+import org.squiddev.cobalt.function.LuaFunction;
+
+/**
+ * The iterator functions returned by {@code pairs} and {@code ipairs}.
+ * <p>
+ * These are implemented by {@link org.squiddev.cobalt.lib.BaseLib}, which registers them here so the interpreter can
+ * special case generic {@code for} loops using them. If the base library has not been loaded, no function is
+ * recognised, and loops just call the iterator as normal.
+ */
+public final class BuiltinIterators {
+	private static @Nullable LuaFunction next;
+	private static @Nullable LuaFunction inext;
+
+	private BuiltinIterators() {
+	}
+
+	public static void register(LuaFunction next, LuaFunction inext) {
+		BuiltinIterators.next = next;
+		BuiltinIterators.inext = inext;
+	}
+
+	public static boolean isNext(LuaValue value) {
+		return value == next;
+	}
+
+	public static boolean isInext(LuaValue value) {
+		return value == inext;
+	}
+}
@@ -8,5 +8,6 @@ module cc.tweaked.cobalt {
 	exports org.squiddev.cobalt.interrupt;
 	exports org.squiddev.cobalt.lib;
 	exports org.squiddev.cobalt.lib.system;
+	exports org.squiddev.cobalt.scheduler;
 	exports org.squiddev.cobalt.unwind;
 }
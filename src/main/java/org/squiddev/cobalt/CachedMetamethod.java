@@ -26,12 +26,31 @@ package org.squiddev.cobalt;
 
 /**
  * A metamethod whose absence will be cached.
+ * <p>
+ * Each table keeps a bitset of which of these metamethods are known to be absent (see
+ * {@link LuaTable#rawget(CachedMetamethod)}), which is reset whenever the table is modified. As the cache lives on the
+ * metatable, it is shared by every value using that metatable.
  */
 public enum CachedMetamethod {
 	INDEX(Constants.INDEX),
 	NEWINDEX(Constants.NEWINDEX),
 	LEN(Constants.LEN),
-	EQ(Constants.EQ);
+	EQ(Constants.EQ),
+	CALL(Constants.CALL),
+	ADD(Constants.ADD),
+	SUB(Constants.SUB),
+	MUL(Constants.MUL),
+	DIV(Constants.DIV),
+	MOD(Constants.MOD),
+	POW(Constants.POW),
+	UNM(Constants.UNM),
+	LT(Constants.LT),
+	LE(Constants.LE),
+	CONCAT(Constants.CONCAT),
+	TOSTRING(Constants.TOSTRING),
+	PAIRS(Constants.PAIRS),
+	METATABLE(Constants.METATABLE),
+	MODE(Constants.MODE);
 
 	private final LuaString key;
 
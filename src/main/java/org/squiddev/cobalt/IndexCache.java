@@ -0,0 +1,140 @@
+package org.squiddev.cobalt;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * An inline cache for {@code __index} lookups with a constant string key, such as {@code obj:method()} or
+ * {@code obj.field}.
+ * <p>
+ * When a key is missing from a value, and is instead found by following a chain of {@code __index} tables, we record
+ * every table we looked at along the way (the metatables and their {@code __index} tables), along with the final table
+ * (the "holder") and slot the key was found in. Future lookups at the same call site can then skip the chain entirely,
+ * provided:
+ * <ul>
+ *     <li>The value has the same metatable as before.</li>
+ *     <li>None of the tables in the chain have been modified (see {@link LuaTable#version}).</li>
+ * </ul>
+ * <p>
+ * If the lookup cannot be cached (for instance, the chain ends in an {@code __index} function), we instead store a
+ * negative entry, so we do not attempt to build a cache on every lookup.
+ * <p>
+ * Caches are immutable, and stored per-instruction on the {@link Prototype}. As prototypes may live much longer than
+ * the tables they index, the tables in the chain are only held by {@linkplain WeakReference weak references}. A cache
+ * whose tables have been collected is simply treated as a miss.
+ *
+ * @see OperationHelper#getTable(LuaState, LuaValue, LuaString, Prototype, int, int)
+ */
+final class IndexCache {
+	/**
+	 * The maximum number of {@code __index} tables to follow before giving up on caching.
+	 */
+	private static final int MAX_DEPTH = 4;
+
+	/**
+	 * The tables in the chain. The first of these is always the value's metatable.
+	 */
+	private final WeakReference<LuaTable>[] tables;
+	private final int[] versions;
+
+	/**
+	 * The index of the table holding the key in {@link #tables}, or {@code -1} if this lookup cannot be cached.
+	 */
+	private final int holder;
+	private final int slot;
+
+	private IndexCache(WeakReference<LuaTable>[] tables, int[] versions, int holder, int slot) {
+		this.tables = tables;
+		this.versions = versions;
+		this.holder = holder;
+		this.slot = slot;
+	}
+
+	/**
+	 * Determine if this cache applies to a value with the given metatable, and none of the tables in the chain have
+	 * changed.
+	 *
+	 * @param metatable The metatable of the value being indexed.
+	 * @return Whether this cache is valid.
+	 */
+	boolean isValid(LuaTable metatable) {
+		WeakReference<LuaTable>[] tables = this.tables;
+		if (tables[0].get() != metatable) return false;
+
+		int[] versions = this.versions;
+		for (int i = 1; i < tables.length; i++) {
+			LuaTable table = tables[i].get();
+			if (table == null || table.version != versions[i]) return false;
+		}
+
+		return metatable.version == versions[0];
+	}
+
+	/**
+	 * Get the cached value. This should only be called if this cache {@linkplain #isValid(LuaTable) is valid}.
+	 *
+	 * @return The cached value, or {@code null} if this lookup cannot be cached.
+	 */
+	@Nullable
+	LuaValue get() {
+		if (holder < 0) return null;
+		LuaTable table = tables[holder].get();
+		return table == null ? Constants.NIL : table.nodeValue(slot);
+	}
+
+	/**
+	 * Build a cache for looking up {@code key} in a value with the given metatable. This only caches the value when the
+	 * key is found by following {@code __index} tables (rather than functions).
+	 *
+	 * @param metatable The metatable of the value being indexed.
+	 * @param key       The key to look up.
+	 * @return The new cache.
+	 */
+	static IndexCache create(LuaTable metatable, LuaString key) {
+		LuaTable[] tables = new LuaTable[MAX_DEPTH * 2];
+		int count = 0;
+
+		LuaTable mt = metatable;
+		for (int depth = 0; depth < MAX_DEPTH; depth++) {
+			count = add(tables, count, mt);
+			if (!(mt.rawget(CachedMetamethod.INDEX) instanceof LuaTable index)) break;
+			count = add(tables, count, index);
+
+			int slot = index.getNode(key);
+			if (slot >= 0 && !index.nodeValue(slot).isNil()) return build(tables, count, indexOf(tables, count, index), slot);
+
+			mt = index.getMetatable(null);
+			if (mt == null) break;
+		}
+
+		return build(tables, count, -1, -1);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static IndexCache build(LuaTable[] tables, int count, int holder, int slot) {
+		WeakReference<LuaTable>[] chain = new WeakReference[count];
+		int[] versions = new int[count];
+		for (int i = 0; i < count; i++) {
+			chain[i] = new WeakReference<>(tables[i]);
+			versions[i] = tables[i].version;
+		}
+		return new IndexCache(chain, versions, holder, slot);
+	}
+
+	private static int indexOf(LuaTable[] tables, int count, LuaTable table) {
+		for (int i = 0; i < count; i++) {
+			if (tables[i] == table) return i;
+		}
+		throw new IllegalStateException("Table is not in the chain");
+	}
+
+	private static int add(LuaTable[] tables, int count, LuaTable table) {
+		// Class-like tables are often their own metatable (Class.__index = Class), so avoid checking them twice.
+		for (int i = 0; i < count; i++) {
+			if (tables[i] == table) return count;
+		}
+		tables[count] = table;
+		return count + 1;
+	}
+}
@@ -24,7 +24,9 @@
  */
 package org.squiddev.cobalt;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.squiddev.cobalt.debug.DebugHelpers;
+import org.squiddev.cobalt.debug.Traceback;
 
 import java.io.Serial;
 
@@ -43,12 +45,31 @@ public final class LuaError extends Exception {
 	@Serial
 	private static final long serialVersionUID = 3065540200206862088L;
 
+	/**
+	 * Whether to capture Java stack traces for errors which do not wrap a Java exception.
+	 * <p>
+	 * Errors raised by Lua code (or by library functions on its behalf) are frequently caught by {@code pcall} and
+	 * discarded, so filling in the Java stack trace is often the most expensive part of raising an error. This can be
+	 * disabled by setting the {@code cobalt.noErrorStackTrace} system property.
+	 */
+	private static final boolean STACK_TRACES = !Boolean.getBoolean("cobalt.noErrorStackTrace");
+
 	private LuaValue value;
 
 	/**
-	 * The traceback for this error message
+	 * The captured stack for this error, or {@code null} if not filled in.
+	 */
+	private @Nullable Traceback stack;
+
+	/**
+	 * The traceback for this error, lazily formatted from {@link #stack}.
+	 */
+	private @Nullable String traceback;
+
+	/**
+	 * Whether the location information has been added to this error's value.
 	 */
-	private String traceback;
+	private boolean hasContext;
 
 	/**
 	 * The error to raise at
@@ -80,7 +101,7 @@ public final class LuaError extends Exception {
 	 * @param message message to supply
 	 */
 	public LuaError(String message) {
-		super(message);
+		super(message, null, true, STACK_TRACES);
 		level = 1;
 		calculateLevel = true;
 		value = message == null ? Constants.NIL : ValueFactory.valueOf(message);
@@ -93,7 +114,7 @@ public final class LuaError extends Exception {
 	 * @param level   where to supply line info from in call stack
 	 */
 	public LuaError(String message, int level) {
-		super(message);
+		super(message, null, true, STACK_TRACES);
 		this.level = level;
 		calculateLevel = false;
 		value = message == null ? Constants.NIL : ValueFactory.valueOf(message);
@@ -105,7 +126,7 @@ public final class LuaError extends Exception {
 	 * @param message message to supply
 	 */
 	public LuaError(LuaValue message) {
-		super(rawToString(message));
+		super(rawToString(message), null, true, STACK_TRACES);
 		this.level = 1;
 		calculateLevel = true;
 		value = message;
@@ -118,7 +139,7 @@ public final class LuaError extends Exception {
 	 * @param level   where to supply line info from in call stack
 	 */
 	public LuaError(LuaValue message, int level) {
-		super(rawToString(message));
+		super(rawToString(message), null, true, STACK_TRACES);
 		this.level = level;
 		calculateLevel = false;
 		value = message;
@@ -138,7 +159,18 @@ public final class LuaError extends Exception {
 
 	@Override
 	public String getMessage() {
-		return traceback != null ? traceback : rawToString(value);
+		String traceback = getTraceback();
+		return traceback != null ? rawToString(value) + "\n" + traceback : rawToString(value);
+	}
+
+	/**
+	 * Get the Lua traceback for this error.
+	 *
+	 * @return The traceback, or {@code null} if {@link #fillTraceback(LuaState)} has not been called.
+	 */
+	public @Nullable String getTraceback() {
+		if (traceback == null && stack != null) traceback = stack.format();
+		return traceback;
 	}
 
 	/**
@@ -148,10 +180,28 @@ public final class LuaError extends Exception {
 		return value;
 	}
 
+	/**
+	 * Add location information to this error and capture its traceback.
+	 * <p>
+	 * The traceback is only formatted when requested by {@link #getTraceback()} or {@link #getMessage()}. Protected
+	 * calls only need the error's value, and so should use {@link #fillContext(LuaState)} instead.
+	 *
+	 * @param state The current Lua state.
+	 */
 	public void fillTraceback(LuaState state) {
-		// TODO: Split this into two methods: one which adds the context, and one which computes the traceback.
+		if (stack != null) return;
+		fillContext(state);
+		stack = Traceback.capture(state.getCurrentThread(), level);
+	}
 
-		if (traceback != null) return;
+	/**
+	 * Add location information to this error's value, without computing a traceback.
+	 *
+	 * @param state The current Lua state.
+	 */
+	public void fillContext(LuaState state) {
+		if (hasContext) return;
+		hasContext = true;
 		if (getCause() != null) state.reportInternalError(getCause(), () -> "Uncaught Java exception");
 
 		LuaThread thread = state.getCurrentThread();
@@ -164,8 +214,6 @@ public final class LuaError extends Exception {
 			}
 			if (fileLine != null) value = ValueFactory.valueOf(fileLine + ": " + value.toString());
 		}
-
-		traceback = getMessage() + "\n" + DebugHelpers.traceback(thread, level);
 	}
 
 	private static String rawToString(LuaValue value) {
@@ -29,9 +29,11 @@ import org.squiddev.cobalt.compiler.BytecodeFormat;
 import org.squiddev.cobalt.compiler.LoadState;
 import org.squiddev.cobalt.compiler.LuaC;
 import org.squiddev.cobalt.debug.DebugFrame;
+import org.squiddev.cobalt.debug.DebugState;
 import org.squiddev.cobalt.interrupt.InterruptAction;
 import org.squiddev.cobalt.interrupt.InterruptHandler;
 
+import java.time.Duration;
 import java.util.Objects;
 import java.util.function.Supplier;
 
@@ -39,6 +41,13 @@ import java.util.function.Supplier;
  * Global lua state
  */
 public final class LuaState {
+	/**
+	 * The number of {@linkplain #pollInterrupt() interrupt checks} between reading the clock.
+	 *
+	 * @see Builder#timeSlice(Duration)
+	 */
+	private static final int TIME_SLICE_CHECK_INTERVAL = 256;
+
 	/**
 	 * The metatable for all strings
 	 */
@@ -79,11 +88,35 @@ public final class LuaState {
 	private volatile boolean interrupted;
 	private final InterruptHandler interruptHandler;
 
+	/**
+	 * The length of a time slice in nanoseconds, or {@code 0} if time slicing is disabled.
+	 *
+	 * @see Builder#timeSlice(Duration)
+	 */
+	private final long timeSlice;
+
+	/**
+	 * The {@link System#nanoTime()} at which the current time slice started.
+	 */
+	private long timeSliceStart;
+
+	/**
+	 * The number of {@linkplain #pollInterrupt() interrupt checks} until we next check the time slice has expired.
+	 */
+	private int timeSliceCheck;
+
 	/**
 	 * The currently executing thread
 	 */
 	LuaThread currentThread;
 
+	/**
+	 * The throwable used when yielding or resuming a coroutine.
+	 *
+	 * @see UnwindThrowable#create()
+	 */
+	final UnwindThrowable unwind = UnwindThrowable.create();
+
 	/**
 	 * The currently executing main thread
 	 */
@@ -107,6 +140,7 @@ public final class LuaState {
 		interruptHandler = builder.interruptHandler;
 		reportError = builder.reportError;
 		bytecodeFormat = builder.bytecodeFormat;
+		timeSlice = builder.timeSlice;
 
 		mainThread = currentThread = new LuaThread(this);
 	}
@@ -173,19 +207,62 @@ public final class LuaState {
 	}
 
 	/**
-	 * Check if the Lua runtime was interrupted;
+	 * Check if the Lua runtime was interrupted.
+	 * <p>
+	 * This does not check whether the current {@linkplain Builder#timeSlice(Duration) time slice} has expired, and so
+	 * may be called from any thread. Code which will {@linkplain #handleInterrupt() handle} the interrupt should use
+	 * {@link #pollInterrupt()} instead.
 	 *
 	 * @return If the VM is currently interrupted.
-	 * @see #handleInterrupt()
-	 * @see #handleInterruptWithoutYield()
+	 * @see #interrupt()
 	 */
 	public boolean isInterrupted() {
 		return interrupted;
 	}
 
+	/**
+	 * Check if the Lua runtime was interrupted, or if the current {@linkplain Builder#timeSlice(Duration) time slice}
+	 * has expired. If the time slice has expired, this marks the runtime as interrupted.
+	 * <p>
+	 * This is intended for use by the VM and libraries, and should only be called from the thread currently running
+	 * this state.
+	 *
+	 * @return If the VM should be interrupted.
+	 * @see #handleInterrupt()
+	 * @see #handleInterruptWithoutYield()
+	 */
+	public boolean pollInterrupt() {
+		if (interrupted) return true;
+		if (timeSlice == 0 || --timeSliceCheck > 0) return false;
+		return checkTimeSlice();
+	}
+
+	private boolean checkTimeSlice() {
+		// Reading the clock is relatively expensive, so we only do so every few hundred checks.
+		timeSliceCheck = TIME_SLICE_CHECK_INTERVAL;
+		if (System.nanoTime() - timeSliceStart < timeSlice) return false;
+
+		interrupted = true;
+		return true;
+	}
+
+	/**
+	 * Start a new time slice. This is called automatically when a thread is {@linkplain LuaThread#run(LuaThread, Varargs)
+	 * run}, and when an interrupt is handled.
+	 * <p>
+	 * This must be called from the thread which is (or is about to start) running this state. Unlike
+	 * {@link #interrupt()}, the time slice is not synchronised with other threads.
+	 *
+	 * @see Builder#timeSlice(Duration)
+	 */
+	public void startTimeSlice() {
+		timeSliceStart = System.nanoTime();
+		timeSliceCheck = TIME_SLICE_CHECK_INTERVAL;
+	}
+
 	/**
 	 * Handle the current runtime interrupt. Calls to this method should be guarded with a check of
-	 * {@link #isInterrupted()}.
+	 * {@link #pollInterrupt()}.
 	 *
 	 * @throws LuaError        If the {@linkplain InterruptHandler#interrupted() handler} threw an error.
 	 * @throws UnwindThrowable If the handler requested the runtime be {@linkplain InterruptAction#SUSPEND suspended}.
@@ -193,6 +270,7 @@ public final class LuaState {
 	 */
 	public void handleInterrupt() throws UnwindThrowable, LuaError {
 		interrupted = false;
+		if (timeSlice != 0) startTimeSlice();
 		switch (interruptHandler.interrupted()) {
 			case CONTINUE -> {
 			}
@@ -218,6 +296,7 @@ public final class LuaState {
 	 */
 	public void handleInterruptWithoutYield() throws LuaError {
 		interrupted = false;
+		if (timeSlice != 0) startTimeSlice();
 		switch (interruptHandler.interrupted()) {
 			case CONTINUE -> {
 			}
@@ -247,13 +326,19 @@ public final class LuaState {
 		private @Nullable InterruptHandler interruptHandler;
 		private @Nullable ErrorReporter reportError;
 		private @Nullable BytecodeFormat bytecodeFormat;
+		private long timeSlice;
 
 		/**
 		 * Build a Lua state from this builder
 		 *
 		 * @return The constructed Lua state.
+		 * @throws IllegalStateException If a {@linkplain #timeSlice(Duration) time slice} is set without an
+		 *                               {@linkplain #interruptHandler(InterruptHandler) interrupt handler}.
 		 */
 		public LuaState build() {
+			if (timeSlice != 0 && interruptHandler == null) {
+				throw new IllegalStateException("Cannot use a time slice without an interrupt handler");
+			}
 			return new LuaState(this);
 		}
 
@@ -282,6 +367,27 @@ public final class LuaState {
 			return this;
 		}
 
+		/**
+		 * Set the length of this state's time slice.
+		 * <p>
+		 * When set, the VM tracks how long it has been running since the start of the current slice, and
+		 * {@linkplain LuaState#interrupt() interrupts} itself once the slice has expired. This is checked at the same
+		 * points as other interrupts, so does not require a separate timer thread. The {@link InterruptHandler} may then
+		 * {@linkplain InterruptAction#SUSPEND suspend} the VM, or continue with a new time slice.
+		 * <p>
+		 * A new slice is started each time a thread is {@linkplain LuaThread#run(LuaThread, Varargs) run}.
+		 *
+		 * @param timeSlice The length of the time slice.
+		 * @return This builder
+		 * @see LuaState#startTimeSlice()
+		 */
+		public Builder timeSlice(Duration timeSlice) {
+			Objects.requireNonNull(timeSlice, "timeSlice cannot be null");
+			if (timeSlice.isNegative() || timeSlice.isZero()) throw new IllegalArgumentException("timeSlice must be positive");
+			this.timeSlice = timeSlice.toNanos();
+			return this;
+		}
+
 		/**
 		 * Set the error callback used for this Lua state.
 		 *
@@ -26,6 +26,8 @@ package org.squiddev.cobalt;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Map;
@@ -75,6 +77,13 @@ public final class LuaTable extends LuaValue {
 	private static final Object[] EMPTY_ARRAY = new Object[0];
 	private static final int[] EMPTY_NEXT = new int[0];
 
+	/**
+	 * The error message thrown when attempting to modify a {@linkplain #freeze() frozen table} from Lua.
+	 *
+	 * @see #checkWritable()
+	 */
+	private static final String FROZEN_ERROR = "attempt to modify a frozen table";
+
 	private Object[] array = EMPTY_ARRAY;
 
 	private Object[] keys = EMPTY_ARRAY;
@@ -86,9 +95,37 @@ public final class LuaTable extends LuaValue {
 	private boolean weakKeys;
 	private boolean weakValues;
 
+	/**
+	 * The queue which this table's weak references are registered with, or {@code null} if this table is not weak.
+	 * <p>
+	 * Each reference remembers the slot it is stored in, so entries handed back by the queue can be removed directly,
+	 * without scanning the table. See {@link #drainWeakQueue()}.
+	 */
+	private @Nullable ReferenceQueue<Object> weakQueue;
+
+	private boolean frozen;
+
 	private int metatableFlags;
 	private LuaTable metatable;
 
+	/**
+	 * The {@linkplain #length() length} of this table, if it is known, or {@code -1} otherwise.
+	 * <p>
+	 * When this is non-negative, the table's positive integer keys are exactly {@code 1..borderHint}. This means it is
+	 * the only border of the table, and so is the length returned by the usual border search. This is kept up-to-date
+	 * when values are appended to or removed from the end of the sequence (such as {@code t[#t + 1] = x}), and discarded
+	 * when a hole is introduced.
+	 */
+	private int borderHint;
+
+	/**
+	 * A counter which is incremented whenever this table is modified.
+	 *
+	 * @see #getVersion()
+	 * @see IndexCache
+	 */
+	int version;
+
 	/**
 	 * Construct empty table
 	 */
@@ -107,6 +144,61 @@ public final class LuaTable extends LuaValue {
 		resize(arraySize, hashSize, false);
 	}
 
+	/**
+	 * Construct a table whose array part is a copy of an existing array.
+	 *
+	 * @param array    The values in the array part. This may contain {@link Constants#NIL}, but not {@code null}.
+	 * @param hashSize capacity of hash part
+	 */
+	public LuaTable(LuaValue[] array, int hashSize) {
+		super(TTABLE);
+		setArray(Arrays.copyOf(array, array.length, Object[].class), hashSize);
+	}
+
+	/**
+	 * Construct a table using an existing array as its array part. Unlike {@link #LuaTable(LuaValue[], int)}, the
+	 * array is used directly rather than copied. The table takes ownership of the array, and so it must not be used by
+	 * the caller afterwards.
+	 * <p>
+	 * This is intended for code which builds large lists to hand to Lua, and so wants to avoid copying them. The array
+	 * must be an {@code Object[]} (rather than a {@code LuaValue[]}), as the table may later store other objects in it.
+	 *
+	 * @param array The values in the array part. These must all be {@link LuaValue}s, and may be
+	 *              {@link Constants#NIL}, but not {@code null}.
+	 * @return The new table.
+	 * @throws NullPointerException     If the array contains {@code null}.
+	 * @throws IllegalArgumentException If the array is not an {@code Object[]}, or contains a non-{@link LuaValue}.
+	 */
+	public static LuaTable wrap(Object[] array) {
+		if (array.getClass() != Object[].class) throw new IllegalArgumentException("Array must be an Object[]");
+
+		LuaTable table = new LuaTable();
+		table.setArray(array, 0);
+		return table;
+	}
+
+	private void setArray(Object[] array, int hashSize) {
+		// Check the array only contains Lua values, and find its border. The array is a sequence if all its values are
+		// non-nil up to the last one.
+		int firstNil = -1, border = 0;
+		for (int i = 0; i < array.length; i++) {
+			Object value = array[i];
+			if (value == NIL) {
+				if (firstNil < 0) firstNil = i;
+			} else if (value instanceof LuaValue) {
+				border = i + 1;
+			} else if (value == null) {
+				throw new NullPointerException("Array contains null at index " + (i + 1));
+			} else {
+				throw new IllegalArgumentException("Array contains a " + value.getClass().getName() + " at index " + (i + 1));
+			}
+		}
+
+		this.array = array;
+		if (hashSize > 0) setNodeVector(hashSize);
+		borderHint = firstNil >= 0 && firstNil < border ? -1 : border;
+	}
+
 	@Override
 	public LuaTable checkTable() {
 		return this;
@@ -120,11 +212,63 @@ public final class LuaTable extends LuaValue {
 	 * @param nArray the number of array slots to preallocate in the table.
 	 */
 	public void presize(int nArray) {
+		checkMutable();
 		if (nArray > array.length) {
 			resize(nArray, keys.length, false);
 		}
 	}
 
+	/**
+	 * Preallocate the array and hash part of a table, so that it may hold at least {@code nArray} sequential values
+	 * and {@code nHash} other values without being resized.
+	 *
+	 * @param nArray The number of array slots to preallocate.
+	 * @param nHash  The number of hash slots to preallocate.
+	 */
+	public void presize(int nArray, int nHash) {
+		checkMutable();
+		if (nArray > array.length || nHash > keys.length) {
+			resize(Math.max(nArray, array.length), Math.max(nHash, keys.length), false);
+		}
+	}
+
+	/**
+	 * Remove all entries from this table, keeping its current capacity. This allows a table to be reused without
+	 * having to grow it again.
+	 * <p>
+	 * The table's metatable is left unchanged.
+	 *
+	 * @see #clear(boolean)
+	 */
+	public void clear() {
+		clear(false);
+	}
+
+	/**
+	 * Remove all entries from this table. The table's metatable is left unchanged.
+	 *
+	 * @param shrink Whether to release the table's storage. Otherwise, the current capacity is kept, so that the table
+	 *               may be refilled without being resized.
+	 */
+	public void clear(boolean shrink) {
+		checkMutable();
+		version++;
+		if (shrink) {
+			array = EMPTY_ARRAY;
+			setNodeVector(0);
+		} else {
+			Arrays.fill(array, NIL);
+			Arrays.fill(keys, NIL);
+			Arrays.fill(values, NIL);
+			Arrays.fill(next, -1);
+			lastFree = keys.length - 1;
+		}
+
+		// Any references which have been collected no longer matter, as they have been removed anyway.
+		drainWeakQueue();
+		borderHint = weakValues ? -1 : 0;
+	}
+
 	@Override
 	public LuaTable getMetatable(@Nullable LuaState state) {
 		return metatable;
@@ -132,12 +276,14 @@ public final class LuaTable extends LuaValue {
 
 	@Override
 	public void setMetatable(@Nullable LuaState state, LuaTable mt) {
+		checkMutable();
 		metatable = mt;
+		version++;
 
 		boolean newWeakKeys = false, newWeakValues = false;
 
 		if (mt != null) {
-			LuaValue mode = mt.rawget(Constants.MODE);
+			LuaValue mode = mt.rawget(CachedMetamethod.MODE);
 			if (mode.isString()) {
 				LuaString m = (LuaString) mode.toLuaString();
 				if (m.indexOf((byte) 'k') >= 0) newWeakKeys = true;
@@ -148,10 +294,116 @@ public final class LuaTable extends LuaValue {
 		if (newWeakKeys != weakKeys || newWeakValues != weakValues) {
 			weakKeys = newWeakKeys;
 			weakValues = newWeakValues;
+			weakQueue = newWeakKeys || newWeakValues ? new ReferenceQueue<>() : null;
+			// Values may be removed from weak tables at any point, so we cannot track the length.
+			if (newWeakValues) borderHint = -1;
 			rehash(null, true);
 		}
 	}
 
+	/**
+	 * Freeze this table, preventing any further modifications to it.
+	 * <p>
+	 * Once frozen, any attempt to modify the table (setting a key, changing its metatable, etc...) will fail. All of
+	 * this class's methods which modify the table throw an {@link IllegalStateException} when it is frozen. Code which
+	 * modifies tables on behalf of Lua (such as library functions) should call {@link #checkWritable()} first, so that
+	 * Lua code receives a {@link LuaError} instead.
+	 * <p>
+	 * As reading from a frozen table never mutates it, frozen tables may be shared between multiple {@link LuaState}s,
+	 * and read from multiple threads at once, provided the table is safely published after freezing. This is useful
+	 * for large read-only data sets, which would otherwise need to be copied into each state.
+	 * <p>
+	 * Freezing is shallow: any tables contained within this one (including its metatable) are not frozen. When sharing
+	 * a table between states, these should be frozen too. Similarly, functions are tied to the state they were created
+	 * in, and so should not be stored in shared tables.
+	 * <p>
+	 * When a table is frozen, it is repacked so that lookups are as cheap as possible.
+	 *
+	 * @return This table, for chaining.
+	 * @throws IllegalStateException If this table has weak keys or values.
+	 * @see #isFrozen()
+	 */
+	public LuaTable freeze() {
+		if (frozen) return this;
+		if (weakKeys || weakValues) throw new IllegalStateException("Cannot freeze a weak table");
+
+		// Shrink the table to fit its current contents, and then grow the hash part until most keys are in their main
+		// position, so lookups rarely need to walk a chain.
+		rehash(null, false);
+		for (int i = 0; i < 2 && keys.length > 0 && countCollisions() * 4 > keys.length; i++) {
+			resize(array.length, keys.length * 2, false);
+		}
+
+		// Reads from metatables will populate the cache of absent metamethods. Do this now, so that reads never write
+		// to the table.
+		int flags = 0;
+		for (CachedMetamethod method : CachedMetamethod.values()) {
+			if (rawget(method.getKey()).isNil()) flags |= 1 << method.ordinal();
+		}
+		metatableFlags = flags;
+
+		frozen = true;
+		return this;
+	}
+
+	/**
+	 * Determine whether this table has been frozen.
+	 *
+	 * @return Whether this table is frozen.
+	 * @see #freeze()
+	 */
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * Get the current version of this table. This is incremented whenever a key is added to or removed from this table,
+	 * or its metatable is changed, and so may be used to cheaply determine whether a table has changed since it was
+	 * last observed.
+	 * <p>
+	 * The version may also be incremented for other reasons (for instance, when a value in the hash part is updated or
+	 * the table is resized), so callers should only rely on an unchanged version meaning the table's keys and
+	 * metatable have not changed. Entries removed from weak tables by the garbage collector do not update the version.
+	 *
+	 * @return The current version of this table.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Count the number of keys which are not in their main position.
+	 *
+	 * @return The number of colliding keys.
+	 */
+	private int countCollisions() {
+		int collisions = 0;
+		for (int i = 0; i < keys.length; i++) {
+			LuaValue key = (LuaValue) keys[i];
+			if (!key.isNil() && hashSlot(key) != i) collisions++;
+		}
+		return collisions;
+	}
+
+	/**
+	 * Throw a Lua error if this table has been {@linkplain #freeze() frozen}. This should be used by functions which
+	 * modify a table on behalf of Lua code.
+	 *
+	 * @throws LuaError If this table is frozen.
+	 */
+	public void checkWritable() throws LuaError {
+		if (frozen) throw new LuaError(FROZEN_ERROR);
+	}
+
+	/**
+	 * Throw an exception if this table has been {@linkplain #freeze() frozen}.
+	 *
+	 * @throws IllegalStateException If this table is frozen.
+	 */
+	private void checkMutable() {
+		if (frozen) throw new IllegalStateException("Cannot modify a frozen table");
+	}
+
 	/**
 	 * Get a value in a table without metatag processing.
 	 *
@@ -180,15 +432,54 @@ public final class LuaTable extends LuaValue {
 	 * @param count The number of values to move.
 	 */
 	public void move(int from, int to, int count) {
-		// TODO: Use System.arraycopy here where possible.
-		if (to >= from + count || to <= from) {
-			for (int i = 0; i < count; i++) rawset(to + i, rawget(from + i));
+		move(from, this, to, count);
+	}
+
+	/**
+	 * Copy items from this table into another table. This is equivalent to {@code table.move}, ignoring metamethods.
+	 * <p>
+	 * When both ranges are within the tables' array parts, this is performed with a single
+	 * {@link System#arraycopy(Object, int, Object, int, int)}.
+	 *
+	 * @param from  The start position in this table.
+	 * @param dest  The table to copy to. This may be the same as this table.
+	 * @param to    The destination position.
+	 * @param count The number of values to move.
+	 */
+	public void move(int from, LuaTable dest, int to, int count) {
+		dest.checkMutable();
+		if (count <= 0) return;
+
+		if (!weakValues && !dest.weakValues
+			&& from > 0 && (long) from + count - 1 <= array.length
+			&& to > 0 && (long) to + count - 1 <= dest.array.length) {
+			System.arraycopy(array, from - 1, dest.array, to - 1, count);
+
+			// If we copied a contiguous sequence into (or onto the end of) another one, then the destination is still a
+			// sequence, and we can keep track of its length. Otherwise we've no idea!
+			int sourceBorder = borderHint, destBorder = dest.borderHint;
+			if (sourceBorder >= 0 && from + count - 1 <= sourceBorder && destBorder >= 0 && to <= destBorder + 1) {
+				dest.borderHint = Math.max(destBorder, to + count - 1);
+			} else {
+				dest.borderHint = -1;
+			}
+			dest.version++;
+			return;
+		}
+
+		if (dest != this || to >= from + count || to <= from) {
+			for (int i = 0; i < count; i++) dest.rawset(to + i, rawget(from + i));
 		} else {
-			for (int i = count - 1; i >= 0; i--) rawset(to + i, rawget(from + i));
+			for (int i = count - 1; i >= 0; i--) dest.rawset(to + i, rawget(from + i));
 		}
 	}
 
 	public int length() {
+		int hint = borderHint;
+		if (hint >= 0) return hint;
+
+		drainWeakQueue();
+
 		int a = array.length;
 		/*
 		 * Array cannot contain nil value, except if that array is statically allocated
@@ -247,6 +538,7 @@ public final class LuaTable extends LuaValue {
 	 * @see #length()
 	 */
 	public int size() {
+		drainWeakQueue();
 		int n = 0;
 		for (var k : array) if (!strengthen(k).isNil()) n++;
 		for (int i = 0; i < keys.length; i++) {
@@ -282,6 +574,7 @@ public final class LuaTable extends LuaValue {
 	 * @see #isNil()
 	 */
 	public Varargs next(LuaValue key) throws LuaError {
+		drainWeakQueue();
 		int i = findIndex(key);
 		if (i < 0) throw new LuaError("invalid key to 'next'");
 
@@ -300,6 +593,52 @@ public final class LuaTable extends LuaValue {
 		return NIL;
 	}
 
+	/**
+	 * Find the next key-value pair in this table, writing them to an array. This is equivalent to {@link #next(LuaValue)},
+	 * but avoids allocating a {@link Varargs}.
+	 *
+	 * @param key    The key to start from, or {@link Constants#NIL} to start at the beginning.
+	 * @param out    The array to write the results to.
+	 * @param offset The offset into the array to write the results to.
+	 * @param count  The number of results to write. The key is written first, then the value, and any remaining slots
+	 *               are filled with {@link Constants#NIL}.
+	 * @return Whether there was another entry. If not, all slots will be set to {@link Constants#NIL}.
+	 * @throws LuaError If the supplied key is invalid.
+	 * @see #next(LuaValue)
+	 */
+	public boolean next(LuaValue key, LuaValue[] out, int offset, int count) throws LuaError {
+		drainWeakQueue();
+		int i = findIndex(key);
+		if (i < 0) throw new LuaError("invalid key to 'next'");
+
+		LuaValue nextKey = NIL, nextValue = NIL;
+		for (; i < array.length; i++) {
+			LuaValue value = strengthen(array[i]);
+			if (!value.isNil()) {
+				nextKey = valueOf(i + 1);
+				nextValue = value;
+				break;
+			}
+		}
+
+		if (nextKey == NIL) {
+			for (i -= array.length; i < keys.length; i++) {
+				LuaValue thisKey = key(i);
+				LuaValue thisValue = value(i);
+				if (!thisKey.isNil() && !thisValue.isNil()) {
+					nextKey = thisKey;
+					nextValue = thisValue;
+					break;
+				}
+			}
+		}
+
+		if (count >= 1) out[offset] = nextKey;
+		if (count >= 2) out[offset + 1] = nextValue;
+		for (int j = 2; j < count; j++) out[offset + j] = NIL;
+		return nextKey != NIL;
+	}
+
 	/**
 	 * Returns the index of this key for table traversals + 1.
 	 *
@@ -374,13 +713,6 @@ public final class LuaTable extends LuaValue {
 		return hashSlot(key, keys.length - 1);
 	}
 
-	private void dropWeakArrayValues() {
-		for (int i = 0; i < array.length; ++i) {
-			Object x = array[i];
-			if (x != NIL && strengthen(x).isNil()) array[i] = NIL;
-		}
-	}
-
 	// Compute ceil(log2(x))
 	private static int log2(int x) {
 		return 32 - Integer.numberOfLeadingZeros(x - 1);
@@ -391,13 +723,13 @@ public final class LuaTable extends LuaValue {
 	/**
 	 * Resize the table
 	 */
-	private static Object[] setArrayVector(Object[] oldArray, int n, boolean metaChange, boolean weakValues) {
+	private Object[] setArrayVector(Object[] oldArray, int n, boolean metaChange) {
 		Object[] newArray = new Object[n];
 		int len = Math.min(n, oldArray.length);
 		if (metaChange) {
 			for (int i = 0; i < len; i++) {
 				LuaValue value = strengthen(oldArray[i]);
-				newArray[i] = weakValues ? weaken(value) : value;
+				newArray[i] = weakValues ? weaken(value, ~i) : value;
 			}
 		} else {
 			System.arraycopy(oldArray, 0, newArray, 0, Math.min(n, oldArray.length));
@@ -438,9 +770,10 @@ public final class LuaTable extends LuaValue {
 				if (i > lim) break;
 			}
 
+			// Values which have been collected, but not yet removed from the table, are counted here. This is harmless,
+			// as it only affects the size of the array part.
 			for (; i <= lim; i++) {
-				LuaValue value = strengthen(array[i - 1]);
-				if (!value.isNil()) lc++;
+				if (array[i - 1] != NIL) lc++;
 			}
 			nums[lg] += lc;
 			ause += lc;
@@ -450,6 +783,7 @@ public final class LuaTable extends LuaValue {
 	}
 
 	private void setNodeVector(int size) {
+		version++;
 		if (size == 0) {
 			keys = values = EMPTY_ARRAY;
 			next = EMPTY_NEXT;
@@ -478,7 +812,7 @@ public final class LuaTable extends LuaValue {
 
 		// Array part must grow
 		if (newArraySize > oldArraySize) {
-			array = setArrayVector(array, newArraySize, modeChange, weakValues);
+			array = setArrayVector(array, newArraySize, modeChange);
 		}
 
 		Object[] oldKeys = keys;
@@ -487,7 +821,7 @@ public final class LuaTable extends LuaValue {
 
 		if (newArraySize < oldArraySize) {
 			Object[] oldArray = array;
-			array = setArrayVector(oldArray, newArraySize, modeChange, weakValues);
+			array = setArrayVector(oldArray, newArraySize, modeChange);
 
 			// Copy values out of array part into the hash
 			for (int i = newArraySize; i < oldArraySize; i++) {
@@ -499,7 +833,7 @@ public final class LuaTable extends LuaValue {
 			Object[] values = array;
 			for (int i = 0; i < oldArraySize; i++) {
 				LuaValue value = strengthen(values[i]);
-				values[i] = weakValues ? weaken(value) : value;
+				values[i] = weakValues ? weaken(value, ~i) : value;
 			}
 		}
 
@@ -512,57 +846,83 @@ public final class LuaTable extends LuaValue {
 	}
 
 	private void rehash(LuaValue extraKey, boolean mode) {
-		if (weakValues) dropWeakArrayValues();
+		drainWeakQueue();
 
 		int[] nums = new int[32]; // Counts for various functions
-		int arraySize = 0; // Optimal size for array part
-		int arrayCount = numUseArray(nums); // Number of keys in the array part
-		int totalCount = arrayCount; // Number of values in total
-
-		// Count the number of hash values that can be moved to the array, as well as the total count.
-		// See numusehash in ltable.c
-		{
-			int i = keys.length;
-			while (--i >= 0) {
-				LuaValue key = key(keys, values, i, true);
-				LuaValue value = value(values, i, true);
-				if (!value.isNil()) {
-					arrayCount += countInt(key, nums);
-					totalCount++;
-				}
-			}
-		}
+		int totalCount = numUseArray(nums) + numUseHash(nums); // Number of values in total
 
 		if (extraKey != null) {
 			// Count the extra key we're using
-			arrayCount += countInt(extraKey, nums);
+			countInt(extraKey, nums);
 			totalCount++;
 		}
 
-		// Derive optimal size for new array part
-		// See computesizes in ltable.c
-		{
-			int sum = 0; // Number of elements smaller than 2 ^ i
-			int numArray = 0; // Number of elements to go to array part
-
-			// Loop while keys can fill more than half of total size
-			for (int i1 = 0, twoPow = 1; arrayCount > twoPow / 2; i1++, twoPow *= 2) {
-				if (nums[i1] > 0) {
-					sum += nums[i1];
+		int arraySize = computeArraySize(nums);
+		resize(arraySize, totalCount - countArrayKeys(nums, arraySize), mode);
+	}
 
-					// If more than half the elements are present
-					if (sum > twoPow / 2) {
-						arraySize = twoPow;
-						numArray = sum;
-					}
-				}
+	/**
+	 * Count the number of keys in the hash part of the table.
+	 * <p>
+	 * See numusehash in ltable.c
+	 *
+	 * @param nums Incremented with the count of integer keys between 2^(i-1)+1 to 2^i;
+	 * @return Total number of non-nil keys.
+	 */
+	private int numUseHash(int[] nums) {
+		int totalCount = 0;
+		for (int i = keys.length - 1; i >= 0; i--) {
+			LuaValue key = key(keys, values, i, true);
+			LuaValue value = value(values, i, true);
+			if (!value.isNil()) {
+				countInt(key, nums);
+				totalCount++;
 			}
+		}
+		return totalCount;
+	}
+
+	/**
+	 * Derive the optimal size for the array part: the largest power of two {@code n} such that more than half of the
+	 * slots {@code 1..n} would be used.
+	 * <p>
+	 * See computesizes in ltable.c
+	 *
+	 * @param nums The count of integer keys between 2^(i-1)+1 to 2^i.
+	 * @return The optimal array size.
+	 */
+	private static int computeArraySize(int[] nums) {
+		int arrayCount = 0; // Total number of integer keys
+		for (int count : nums) arrayCount += count;
+
+		int arraySize = 0; // Optimal size for array part
+		int sum = 0; // Number of elements smaller than 2 ^ i
+
+		// Loop while keys can fill more than half of total size
+		for (int i = 0, twoPow = 1; arrayCount > twoPow / 2; i++, twoPow *= 2) {
+			if (nums[i] > 0) {
+				sum += nums[i];
 
-			assert (arraySize == 0 || arraySize / 2 < numArray) && numArray <= arraySize;
-			arrayCount = numArray;
+				// If more than half the elements are present
+				if (sum > twoPow / 2) arraySize = twoPow;
+			}
 		}
 
-		resize(arraySize, totalCount - arrayCount, mode);
+		assert arraySize == 0 || arraySize / 2 < countArrayKeys(nums, arraySize);
+		return arraySize;
+	}
+
+	/**
+	 * Count the number of integer keys which would be stored in an array part of a given size.
+	 *
+	 * @param nums      The count of integer keys between 2^(i-1)+1 to 2^i.
+	 * @param arraySize The size of the array part. This should be a power of two or 0.
+	 * @return The number of keys in the array part.
+	 */
+	private static int countArrayKeys(int[] nums, int arraySize) {
+		int count = 0;
+		for (int i = 0, twoPow = 1; twoPow <= arraySize; i++, twoPow *= 2) count += nums[i];
+		return count;
 	}
 	//endregion
 
@@ -609,6 +969,17 @@ public final class LuaTable extends LuaValue {
 		return value(values, slot, weakValues);
 	}
 
+	/**
+	 * Get the value of a node in the hash part. The slot should have been found with {@link #getNode(LuaValue)}, and
+	 * the table not modified since (see {@link #version}).
+	 *
+	 * @param slot The node slot.
+	 * @return The node's value.
+	 */
+	LuaValue nodeValue(int slot) {
+		return value(slot);
+	}
+
 	/**
 	 * Get the current value, converting it to a strong reference if required.
 	 *
@@ -623,6 +994,41 @@ public final class LuaTable extends LuaValue {
 		return strengthened;
 	}
 
+	/**
+	 * Update the {@linkplain #borderHint border hint} after setting an integer key.
+	 *
+	 * @param key   The key which was set.
+	 * @param value The value it was set to.
+	 */
+	private void updateBorder(int key, LuaValue value) {
+		int hint = borderHint;
+		if (hint < 0 || key <= 0) return;
+
+		if (value.isNil()) {
+			if (key == hint) {
+				borderHint = hint - 1;
+			} else if (key < hint) {
+				borderHint = -1;
+			}
+		} else if (key == hint + 1) {
+			borderHint = key;
+		} else if (key > hint) {
+			borderHint = -1;
+		}
+	}
+
+	/**
+	 * Set a value in the array part, incrementing the {@linkplain #version} if the value is added or removed.
+	 *
+	 * @param index The zero-based index into the array part.
+	 * @param value The new value.
+	 */
+	private void setArrayValue(int index, LuaValue value) {
+		Object[] array = this.array;
+		if ((array[index] == NIL) != (value == NIL)) version++;
+		array[index] = weakValues ? weaken(value, ~index) : value;
+	}
+
 	/**
 	 * Set the value of a node. This is the inverse of {@link #value(int)}.
 	 *
@@ -630,8 +1036,9 @@ public final class LuaTable extends LuaValue {
 	 * @param value The new value.
 	 */
 	private void setNodeValue(int slot, LuaValue value) {
-		values[slot] = weakValues ? weaken(value) : value;
+		values[slot] = weakValues ? weaken(value, slot) : value;
 		metatableFlags = 0;
+		version++;
 	}
 
 	/**
@@ -676,8 +1083,8 @@ public final class LuaTable extends LuaValue {
 				next[otherNode] = freeNode;
 
 				// Copy colliding node into free position
-				keys[freeNode] = keys[mainNode];
-				values[freeNode] = values[mainNode];
+				keys[freeNode] = WeakSlot.move(keys[mainNode], freeNode);
+				values[freeNode] = WeakSlot.move(values[mainNode], freeNode);
 				next[freeNode] = next[mainNode];
 
 				// Clear main node
@@ -702,7 +1109,7 @@ public final class LuaTable extends LuaValue {
 			}
 		}
 
-		keys[mainNode] = weakKeys ? weaken(key) : key;
+		keys[mainNode] = weakKeys ? weaken(key, mainNode) : key;
 
 		return mainNode;
 	}
@@ -722,7 +1129,14 @@ public final class LuaTable extends LuaValue {
 		}
 	}
 
-	private int getNode(LuaValue search) {
+	/**
+	 * Find the node in the hash part for a given key.
+	 *
+	 * @param search The key to search for.
+	 * @return The slot of this node, or {@code -1} if not present.
+	 * @see #nodeValue(int)
+	 */
+	int getNode(LuaValue search) {
 		if (keys.length == 0 || search == NIL) return -1;
 
 		int node = hashSlot(search);
@@ -765,7 +1179,7 @@ public final class LuaTable extends LuaValue {
 			if (!value.isNil()) return value;
 		}
 
-		metatableFlags |= flag;
+		if (!frozen) metatableFlags |= flag;
 		return NIL;
 	}
 
@@ -792,10 +1206,14 @@ public final class LuaTable extends LuaValue {
 	}
 
 	private boolean trySet(int key, LuaValue value, LuaValue keyValue) {
+		// Fall back to the slow path, which will report the error.
+		if (frozen) return false;
+
 		if (key > 0 && key <= array.length) {
 			// If value is absent and we've got a __newindex method, don't insert.
 			if (strengthen(array[key - 1]) == NIL && hasNewIndex()) return false;
-			array[key - 1] = weakValues ? weaken(value) : value;
+			setArrayValue(key - 1, value);
+			updateBorder(key, value);
 			return true;
 		}
 
@@ -805,6 +1223,7 @@ public final class LuaTable extends LuaValue {
 		} else {
 			if (value(node) == NIL && hasNewIndex()) return false;
 			setNodeValue(node, value);
+			updateBorder(key, value);
 			return true;
 		}
 
@@ -822,6 +1241,7 @@ public final class LuaTable extends LuaValue {
 	 * @see OperationHelper#setTable(LuaState, LuaValue, LuaValue, LuaValue)
 	 */
 	boolean trySet(LuaValue key, LuaValue value) throws LuaError {
+		checkWritable();
 		if (key instanceof LuaInteger keyI) return trySet(keyI.intValue(), value, key);
 
 		int node = getNode(key);
@@ -843,9 +1263,11 @@ public final class LuaTable extends LuaValue {
 	}
 
 	private void rawset(int key, LuaValue value, LuaValue valueOf) {
+		checkMutable();
+		updateBorder(key, value);
 		do {
 			if (key > 0 && key <= array.length) {
-				array[key - 1] = weakValues ? weaken(value) : value;
+				setArrayValue(key - 1, value);
 				return;
 			}
 
@@ -869,7 +1291,46 @@ public final class LuaTable extends LuaValue {
 		rawsetImpl(key, value);
 	}
 
+	/**
+	 * Set multiple key/value pairs in this table. This is equivalent to calling {@link #rawset(LuaValue, LuaValue)} for
+	 * each pair, but resizes the table at most once.
+	 *
+	 * @param keys   The keys to set.
+	 * @param values The values to set. This must be the same length as {@code keys}.
+	 * @throws LuaError If any key is {@code nil} or NaN.
+	 */
+	public void rawsetAll(LuaValue[] keys, LuaValue[] values) throws LuaError {
+		if (keys.length != values.length) throw new IllegalArgumentException("keys and values must be the same length");
+		checkMutable();
+
+		int[] nums = new int[32];
+		int count = 0; // Number of non-nil values
+		boolean grow = false; // Whether any keys do not fit in the current array part
+		for (int i = 0; i < keys.length; i++) {
+			LuaValue key = keys[i];
+			if (key.isNil()) throw new LuaError("table index is nil");
+			if (key instanceof LuaDouble d && Double.isNaN(d.doubleValue())) throw new LuaError("table index is NaN");
+
+			if (values[i].isNil()) continue;
+			countInt(key, nums);
+			count++;
+			int slot = arraySlot(key);
+			if (slot == 0 || slot > array.length) grow = true;
+		}
+
+		if (grow) {
+			// Size the table as a rehash would, but counting all the new keys at once. This allows integer keys to be
+			// placed in the array part, rather than all going into the hash.
+			int totalCount = numUseArray(nums) + numUseHash(nums) + count;
+			int arraySize = computeArraySize(nums);
+			presize(arraySize, totalCount - countArrayKeys(nums, arraySize));
+		}
+
+		for (int i = 0; i < keys.length; i++) rawsetImpl(keys[i], values[i]);
+	}
+
 	public void rawsetImpl(LuaValue key, LuaValue value) {
+		checkMutable();
 		if (key instanceof LuaInteger keyI) {
 			rawset(keyI.intValue(), value, key);
 			return;
@@ -894,54 +1355,119 @@ public final class LuaTable extends LuaValue {
 	 * Self-sent message to convert a value to its weak counterpart
 	 *
 	 * @param value value to convert
+	 * @param slot  The slot this value will be stored in. This is the node's index for the hash part, or the bitwise
+	 *              complement ({@code ~index}) of the index in the array part.
 	 * @return {@link LuaValue} that is a strong or weak reference, depending on type of {@code value}
 	 */
-	private static Object weaken(LuaValue value) {
+	private Object weaken(LuaValue value, int slot) {
+		drainWeakQueue();
 		return switch (value.type()) {
-			case TFUNCTION, TTHREAD, TTABLE -> new WeakReference<>(value);
-			case TUSERDATA -> new WeakUserdata((LuaUserdata) value);
+			case TFUNCTION, TTHREAD, TTABLE -> new WeakValue(value, weakQueue, slot);
+			case TUSERDATA -> new WeakUserdata((LuaUserdata) value, weakQueue, slot);
 			default -> value;
 		};
 	}
 
 	/**
-	 * Unwrap a LuaValue from a WeakReference and/or WeakUserdata.
+	 * Remove any entries whose references have been collected, as reported by this table's
+	 * {@linkplain #weakQueue reference queue}.
+	 * <p>
+	 * The removed slots are set to {@link Constants#NIL}, so later lookups and traversals skip them without having to
+	 * dereference anything. References which have been moved or replaced since they were created are ignored.
+	 */
+	private void drainWeakQueue() {
+		ReferenceQueue<Object> queue = weakQueue;
+		if (queue == null) return;
+
+		Reference<?> ref;
+		while ((ref = queue.poll()) != null) {
+			int slot = ((WeakSlot) ref).slot;
+			if (slot < 0) {
+				int index = ~slot;
+				if (index < array.length && array[index] == ref) array[index] = NIL;
+			} else if (slot < keys.length && (keys[slot] == ref || values[slot] == ref)) {
+				// We preserve the key, as it may be part of a chain.
+				values[slot] = NIL;
+			}
+		}
+	}
+
+	/**
+	 * Unwrap a LuaValue from a {@link WeakSlot}.
 	 *
 	 * @param ref reference to convert
 	 * @return LuaValue or null
-	 * @see #weaken(LuaValue)
+	 * @see #weaken(LuaValue, int)
 	 */
-	@SuppressWarnings("unchecked")
 	static LuaValue strengthen(Object ref) {
-		if (ref instanceof WeakReference) {
-			LuaValue value = ((WeakReference<LuaValue>) ref).get();
-			return value == null ? NIL : value;
-		} else if (ref instanceof WeakUserdata) {
-			return ((WeakUserdata) ref).strongValue();
-		} else {
-			return (LuaValue) ref;
+		return ref instanceof LuaValue value ? value : ((WeakSlot) ref).strongValue();
+	}
+
+	/**
+	 * A weak reference stored in a weak table. This records the slot it is stored in (see
+	 * {@link #weaken(LuaValue, int)}), so it can be removed once it is collected.
+	 */
+	private abstract static class WeakSlot extends WeakReference<Object> {
+		int slot;
+
+		WeakSlot(Object referent, @Nullable ReferenceQueue<Object> queue, int slot) {
+			super(referent, queue);
+			this.slot = slot;
+		}
+
+		abstract LuaValue strongValue();
+
+		/**
+		 * Update the slot of a node which is being moved within the hash part.
+		 *
+		 * @param value The node's key or value.
+		 * @param slot  The node's new slot.
+		 * @return The original value.
+		 */
+		static Object move(Object value, int slot) {
+			if (value instanceof WeakSlot ref) ref.slot = slot;
+			return value;
+		}
+	}
+
+	/**
+	 * Internal class to implement weak tables, functions and threads.
+	 */
+	private static final class WeakValue extends WeakSlot {
+		private WeakValue(LuaValue value, @Nullable ReferenceQueue<Object> queue, int slot) {
+			super(value, queue, slot);
+		}
+
+		@Override
+		LuaValue strongValue() {
+			Object value = get();
+			return value == null ? NIL : (LuaValue) value;
 		}
 	}
 
 	/**
 	 * Internal class to implement weak userdata values.
+	 * <p>
+	 * This is a weak reference to the userdata's instance (rather than the userdata itself), so is only enqueued once
+	 * the underlying object has been collected. If the userdata is collected but its instance is still alive, the
+	 * userdata is recreated.
 	 */
-	private static final class WeakUserdata {
+	private static final class WeakUserdata extends WeakSlot {
 		private WeakReference<LuaValue> ref;
-		private final WeakReference<Object> ob;
 		private final LuaTable mt;
 
-		private WeakUserdata(LuaUserdata value) {
+		private WeakUserdata(LuaUserdata value, @Nullable ReferenceQueue<Object> queue, int slot) {
+			super(value.instance, queue, slot);
 			ref = new WeakReference<>(value);
-			ob = new WeakReference<>(value.instance);
 			mt = value.metatable;
 		}
 
+		@Override
 		LuaValue strongValue() {
 			LuaValue u = ref.get();
 			if (u != null) return u;
 
-			Object o = ob.get();
+			Object o = get();
 			if (o != null) {
 				LuaValue ud = userdataOf(o, mt);
 				ref = new WeakReference<>(ud);
@@ -39,6 +39,12 @@ import static org.squiddev.cobalt.debug.DebugFrame.FLAG_YPCALL;
  * Subclass of {@link LuaValue} that implements a Lua coroutine thread.
  * <p>
  * A LuaThread is typically created in response to a scripted call to {@code coroutine.create()}.
+ * <p>
+ * Coroutines do not have their own Java thread. Instead, yielding or resuming a coroutine throws an
+ * {@link UnwindThrowable}, which unwinds the Java stack back to {@link #run(LuaThread, Varargs)}. Each function on the
+ * way saves its state in its {@link DebugFrame}, and is resumed from there when the coroutine is next run. As
+ * Lua-to-Lua calls do not grow the Java stack, the cost of switching is proportional to the number of Java functions
+ * (such as {@code pcall}) and metamethod calls on the coroutine's stack, not the number of nested coroutines.
  *
  * @see LuaValue
  * @see CoroutineLib
@@ -251,7 +257,7 @@ public final class LuaThread extends LuaValue {
 		}
 		if (thread.isMainThread()) throw new LuaError("cannot yield main thread");
 
-		throw UnwindThrowable.yield(args);
+		throw UnwindThrowable.yield(state, args);
 	}
 
 	/**
@@ -274,7 +280,7 @@ public final class LuaThread extends LuaValue {
 			throw new LuaError("cannot resume " + thread.status.getDisplayName() + " coroutine");
 		}
 
-		throw UnwindThrowable.resume(thread, args);
+		throw UnwindThrowable.resume(state, thread, args);
 	}
 
 	public static Varargs runMain(LuaState state, LuaFunction function) throws LuaError {
@@ -298,6 +304,7 @@ public final class LuaThread extends LuaValue {
 	}
 
 	private static Varargs run(final LuaState state, LuaThread thread, LuaFunction function, Varargs args) throws LuaError {
+		state.startTimeSlice();
 		return loop(state, thread, function, args);
 	}
 
@@ -371,6 +378,9 @@ public final class LuaThread extends LuaValue {
 
 					DebugFrame di;
 					for (int i = 0; (di = ds.getFrame(i)) != null; i++) di.cleanup();
+				} else {
+					// Otherwise the stack is empty, and can be reused by another coroutine.
+					ds.recycle();
 				}
 			} catch (UnwindThrowable e) {
 				if (e.isSuspend()) {
@@ -383,6 +393,7 @@ public final class LuaThread extends LuaValue {
 					thread.previousThread = null;
 					thread = previous;
 					args = e.getArgs();
+					e.clear();
 				} else {
 					// Resume into the next coroutine
 					thread.status = Status.NORMAL;
@@ -390,6 +401,7 @@ public final class LuaThread extends LuaValue {
 					next.previousThread = state.currentThread;
 					thread = next;
 					args = e.getArgs();
+					e.clear();
 				}
 			}
 		} while (thread != null);
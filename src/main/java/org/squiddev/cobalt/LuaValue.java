@@ -768,7 +768,7 @@ public abstract class LuaValue extends Varargs {
 	 * This is an internal class not intended to be used directly.
 	 * Instead use the corresponding static methods on LuaValue.
 	 *
-	 * @see ValueFactory#varargsOf(LuaValue[])
+	 * @see ValueFactory#varargsOf(LuaValue...)
 	 */
 	protected static final class ArrayVarargs extends DepthVarargs {
 		private final LuaValue[] v;
@@ -782,7 +782,7 @@ public abstract class LuaValue extends Varargs {
 		 *
 		 * @param v The initial values
 		 * @param r Remaining arguments
-		 * @see ValueFactory#varargsOf(LuaValue[])
+		 * @see ValueFactory#varargsOf(LuaValue...)
 		 */
 		public ArrayVarargs(LuaValue[] v, Varargs r) {
 			super(depth(r) + 1);
@@ -861,4 +861,50 @@ public abstract class LuaValue extends Varargs {
 			v2.fill(array, offset + 1);
 		}
 	}
+
+	/**
+	 * Varargs implementation backed by exactly three values. Unlike {@link PairVarargs}, this stores the values
+	 * directly rather than nesting another {@link Varargs}, so is not counted towards the varargs depth.
+	 *
+	 * @see ValueFactory#varargsOf(LuaValue, LuaValue, Varargs)
+	 * @see ValueFactory#varargsOf(LuaValue...)
+	 */
+	protected static final class TripleVarargs extends Varargs {
+		private final LuaValue v1;
+		private final LuaValue v2;
+		private final LuaValue v3;
+
+		TripleVarargs(LuaValue v1, LuaValue v2, LuaValue v3) {
+			this.v1 = v1;
+			this.v2 = v2;
+			this.v3 = v3;
+		}
+
+		@Override
+		public LuaValue arg(int i) {
+			return switch (i) {
+				case 1 -> v1;
+				case 2 -> v2;
+				case 3 -> v3;
+				default -> Constants.NIL;
+			};
+		}
+
+		@Override
+		public int count() {
+			return 3;
+		}
+
+		@Override
+		public LuaValue first() {
+			return v1;
+		}
+
+		@Override
+		public void fill(LuaValue[] array, int offset) {
+			array[offset] = v1;
+			array[offset + 1] = v2;
+			array[offset + 2] = v3;
+		}
+	}
 }
@@ -49,7 +49,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(dLeft + dRight);
 		} else {
-			return arithMetatable(state, ADD, left, right);
+			return arithMetatable(state, CachedMetamethod.ADD, left, right);
 		}
 	}
 
@@ -58,7 +58,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(dLeft - dRight);
 		} else {
-			return arithMetatable(state, SUB, left, right);
+			return arithMetatable(state, CachedMetamethod.SUB, left, right);
 		}
 	}
 
@@ -71,7 +71,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(dLeft * dRight);
 		} else {
-			return arithMetatable(state, MUL, left, right);
+			return arithMetatable(state, CachedMetamethod.MUL, left, right);
 		}
 	}
 
@@ -80,7 +80,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(div(dLeft, dRight));
 		} else {
-			return arithMetatable(state, DIV, left, right);
+			return arithMetatable(state, CachedMetamethod.DIV, left, right);
 		}
 	}
 
@@ -89,7 +89,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(mod(dLeft, dRight));
 		} else {
-			return arithMetatable(state, MOD, left, right);
+			return arithMetatable(state, CachedMetamethod.MOD, left, right);
 		}
 	}
 
@@ -98,7 +98,7 @@ public final class OperationHelper {
 		if (checkNumber(left, dLeft = left.toDouble()) && checkNumber(right, dRight = right.toDouble())) {
 			return valueOf(Math.pow(dLeft, dRight));
 		} else {
-			return arithMetatable(state, POW, left, right);
+			return arithMetatable(state, CachedMetamethod.POW, left, right);
 		}
 	}
 
@@ -140,7 +140,7 @@ public final class OperationHelper {
 	 * @throws LuaError        if metatag was not defined for either operand or the underlying operator errored.
 	 * @throws UnwindThrowable If calling the metatable function yielded.
 	 */
-	private static LuaValue arithMetatable(LuaState state, LuaValue tag, LuaValue left, LuaValue right) throws LuaError, UnwindThrowable {
+	private static LuaValue arithMetatable(LuaState state, CachedMetamethod tag, LuaValue left, LuaValue right) throws LuaError, UnwindThrowable {
 		return Dispatch.call(state, getMetatable(state, tag, left, right), left, right);
 	}
 
@@ -157,7 +157,7 @@ public final class OperationHelper {
 	 * @return {@link LuaValue} resulting from metatag processing
 	 * @throws LuaError if metatag was not defined for either operand
 	 */
-	private static LuaValue getMetatable(LuaState state, LuaValue tag, LuaValue left, LuaValue right) throws LuaError {
+	private static LuaValue getMetatable(LuaState state, CachedMetamethod tag, LuaValue left, LuaValue right) throws LuaError {
 		LuaValue h = left.metatag(state, tag);
 		if (!h.isNil()) return h;
 
@@ -201,8 +201,8 @@ public final class OperationHelper {
 	}
 
 	public static LuaValue concatNonStrings(LuaState state, LuaValue left, LuaValue right, int leftStack, int rightStack) throws LuaError, UnwindThrowable {
-		LuaValue h = left.metatag(state, Constants.CONCAT);
-		if (h.isNil() && (h = right.metatag(state, Constants.CONCAT)).isNil()) {
+		LuaValue h = left.metatag(state, CachedMetamethod.CONCAT);
+		if (h.isNil() && (h = right.metatag(state, CachedMetamethod.CONCAT)).isNil()) {
 			if (left.isString()) {
 				throw ErrorFactory.operandError(state, right, "concatenate", rightStack);
 			} else {
@@ -215,7 +215,7 @@ public final class OperationHelper {
 	//endregion
 
 	//region Compare
-	private static LuaValue getComparisonMetatable(LuaState state, LuaValue tag, LuaValue left, LuaValue right) throws LuaError {
+	private static LuaValue getComparisonMetatable(LuaState state, CachedMetamethod tag, LuaValue left, LuaValue right) throws LuaError {
 		LuaValue h = left.metatag(state, tag);
 		if (!h.isNil()) return h;
 
@@ -228,7 +228,7 @@ public final class OperationHelper {
 		if (tLeft == TNUMBER && tRight == TNUMBER) return left.toDouble() < right.toDouble();
 		if (tLeft == TSTRING && tRight == TSTRING) return left.checkLuaString().compareTo(right.checkLuaString()) < 0;
 
-		var mt = getComparisonMetatable(state, LT, left, right);
+		var mt = getComparisonMetatable(state, CachedMetamethod.LT, left, right);
 		if (mt.isNil()) throw ErrorFactory.compareError(left, right);
 
 		return Dispatch.call(state, mt, left, right).toBoolean();
@@ -241,12 +241,12 @@ public final class OperationHelper {
 		if (tLeft == TSTRING && tRight == TSTRING) return left.checkLuaString().compareTo(right.checkLuaString()) <= 0;
 
 		{ // Prefer __le.
-			var leMt = getComparisonMetatable(state, LE, left, right);
+			var leMt = getComparisonMetatable(state, CachedMetamethod.LE, left, right);
 			if (!leMt.isNil()) return Dispatch.call(state, leMt, left, right).toBoolean();
 		}
 
 		{ // If unavailable, fall back to __lt.
-			var ltMt = getComparisonMetatable(state, LT, left, right);
+			var ltMt = getComparisonMetatable(state, CachedMetamethod.LT, left, right);
 			if (ltMt.isNil()) throw ErrorFactory.compareError(left, right);
 			DebugFrame frame = DebugState.get(state).getStackUnsafe();
 
@@ -351,7 +351,7 @@ public final class OperationHelper {
 			if (!Double.isNaN(res)) return valueOf(-res);
 		}
 
-		LuaValue meta = value.metatag(state, Constants.UNM);
+		LuaValue meta = value.metatag(state, CachedMetamethod.UNM);
 		if (meta.isNil()) throw createUnaryOpError(state, value, "perform arithmetic on");
 
 		return Dispatch.call(state, meta, value);
@@ -412,24 +412,107 @@ public final class OperationHelper {
 
 	public static LuaValue getTable(LuaState state, LuaValue t, LuaValue key, int stack) throws LuaError, UnwindThrowable {
 		LuaValue tm;
+		if (t instanceof LuaTable table) {
+			LuaValue res = table.rawget(key);
+			if (!res.isNil() || (tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) return res;
+		} else if ((tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) {
+			throw ErrorFactory.operandError(state, t, "index", stack);
+		}
+
+		return getIndex(state, t, tm, key);
+	}
+
+	/**
+	 * Look up a key using a value's {@code __index} metamethod. This should be used once a raw lookup on {@code t} has
+	 * failed, and avoids looking up the key in {@code t} a second time.
+	 *
+	 * @param state The current lua state
+	 * @param t     {@link LuaValue} on which field is being referenced
+	 * @param tm    The {@code __index} metamethod of {@code t}. This must not be nil.
+	 * @param key   The key to look up.
+	 * @return {@link LuaValue} for the {@code key} if it exists, or {@link Constants#NIL}
+	 * @throws LuaError        If there is a loop in metatag processing
+	 * @throws UnwindThrowable If the {@code __index} metamethod yielded.
+	 */
+	public static LuaValue getIndex(LuaState state, LuaValue t, LuaValue tm, LuaValue key) throws LuaError, UnwindThrowable {
 		int loop = 0;
-		do {
+		while (true) {
+			if (tm instanceof LuaFunction metaFunc) return Dispatch.call(state, metaFunc, t, key);
+
+			t = tm;
+			if (++loop >= Constants.MAXTAGLOOP) throw new LuaError("loop in gettable");
+
 			if (t instanceof LuaTable table) {
 				LuaValue res = table.rawget(key);
-				if (!res.isNil() || (tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) {
-					return res;
-				}
+				if (!res.isNil() || (tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) return res;
 			} else if ((tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) {
-				throw ErrorFactory.operandError(state, t, "index", stack);
+				throw ErrorFactory.operandError(state, t, "index", -1);
 			}
+		}
+	}
 
-			if (tm instanceof LuaFunction metaFunc) return Dispatch.call(state, metaFunc, t, key);
+	/**
+	 * Return value for field reference including metatag processing, using an inline cache to speed up lookups which
+	 * go through a chain of {@code __index} tables.
+	 * <p>
+	 * This is used by the interpreter for {@code OP_GETTABLE}/{@code OP_SELF} instructions with a constant string key.
+	 *
+	 * @param state     The current lua state
+	 * @param t         {@link LuaValue} on which field is being referenced
+	 * @param key       The key to look up.
+	 * @param prototype The prototype of the currently executing function.
+	 * @param pc        The program counter of the current instruction.
+	 * @param stack     The register holding {@code t}, used for error messages.
+	 * @return {@link LuaValue} for the {@code key} if it exists, or {@link Constants#NIL}
+	 * @throws LuaError        If there is a loop in metatag processing
+	 * @throws UnwindThrowable If the {@code __index} metamethod yielded.
+	 * @see IndexCache
+	 */
+	public static LuaValue getTable(LuaState state, LuaValue t, LuaString key, Prototype prototype, int pc, int stack) throws LuaError, UnwindThrowable {
+		LuaValue tm;
+		if (t instanceof LuaTable table) {
+			LuaValue res = table.rawget(key);
+			if (!res.isNil() || (tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) return res;
+		} else if ((tm = t.metatag(state, CachedMetamethod.INDEX)).isNil()) {
+			throw ErrorFactory.operandError(state, t, "index", stack);
+		}
 
-			t = tm;
-			stack = -1;
+		return getIndex(state, t, tm, key, prototype, pc);
+	}
+
+	/**
+	 * Look up a key using a value's {@code __index} metamethod, using an inline cache to speed up lookups which go
+	 * through a chain of {@code __index} tables. This should be used once a raw lookup on {@code t} has failed.
+	 *
+	 * @param state     The current lua state
+	 * @param t         {@link LuaValue} on which field is being referenced
+	 * @param tm        The {@code __index} metamethod of {@code t}. This must not be nil.
+	 * @param key       The key to look up.
+	 * @param prototype The prototype of the currently executing function.
+	 * @param pc        The program counter of the current instruction.
+	 * @return {@link LuaValue} for the {@code key} if it exists, or {@link Constants#NIL}
+	 * @throws LuaError        If there is a loop in metatag processing
+	 * @throws UnwindThrowable If the {@code __index} metamethod yielded.
+	 * @see IndexCache
+	 */
+	public static LuaValue getIndex(LuaState state, LuaValue t, LuaValue tm, LuaString key, Prototype prototype, int pc) throws LuaError, UnwindThrowable {
+		LuaTable metatable = t.getMetatable(state);
+		if (metatable == null) return getIndex(state, t, tm, key);
+
+		IndexCache[] caches = prototype.indexCaches;
+		if (caches == null) caches = prototype.indexCaches = new IndexCache[prototype.code.length];
+
+		IndexCache cache = caches[pc];
+		if (cache != null && cache.isValid(metatable)) {
+			LuaValue res = cache.get();
+			// If this lookup cannot be cached, don't bother trying to rebuild the cache.
+			if (res == null) return getIndex(state, t, tm, key);
+			if (!res.isNil()) return res;
 		}
-		while (++loop < Constants.MAXTAGLOOP);
-		throw new LuaError("loop in gettable");
+
+		LuaValue res = getIndex(state, t, tm, key);
+		if (!res.isNil()) caches[pc] = IndexCache.create(metatable, key);
+		return res;
 	}
 
 	/**
@@ -475,7 +558,7 @@ public final class OperationHelper {
 	//endregion
 
 	public static LuaValue toString(LuaState state, LuaValue value) throws LuaError, UnwindThrowable {
-		LuaValue h = value.metatag(state, Constants.TOSTRING);
+		LuaValue h = value.metatag(state, CachedMetamethod.TOSTRING);
 		return h.isNil() ? toStringDirect(value) : Dispatch.call(state, h, value);
 	}
 
@@ -134,7 +134,7 @@ public class ProtectedCall {
 		isError = true;
 
 		LuaError luaError = LuaError.wrap(error);
-		luaError.fillTraceback(state);
+		luaError.fillContext(state);
 
 		LuaValue value;
 		if (errorFunction == null) {
@@ -75,6 +75,14 @@ public final class Prototype {
 	 */
 	public final LocalVariable[] locals;
 
+	/**
+	 * Inline caches for table lookups, indexed by program counter. This is lazily created on the first cacheable
+	 * lookup.
+	 *
+	 * @see IndexCache
+	 */
+	@Nullable IndexCache[] indexCaches;
+
 	public Prototype(
 		LuaString source, LuaString shortSource,
 		LuaValue[] constants, int[] code, Prototype[] children, int parameters, boolean isVarArg, int maxStackSize, UpvalueInfo[] upvalues,
@@ -24,6 +24,8 @@
  */
 package org.squiddev.cobalt;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import java.io.Serial;
 import java.util.Objects;
 
@@ -36,38 +38,62 @@ public final class UnwindThrowable extends Throwable {
 
 	private static final UnwindThrowable suspendCache = new UnwindThrowable(Constants.NONE, null, true, true);
 
-	private final Varargs args;
-	private final LuaThread thread;
+	private Varargs args;
+	private @Nullable LuaThread thread;
 	private final boolean suspend;
-	private final boolean yield;
+	private boolean yield;
 
-	private UnwindThrowable(Varargs args, LuaThread thread, boolean suspend, boolean yield) {
+	private UnwindThrowable(Varargs args, @Nullable LuaThread thread, boolean suspend, boolean yield) {
 		this.args = args;
 		this.thread = thread;
 		this.suspend = suspend;
 		this.yield = yield;
 	}
 
+	/**
+	 * Create a new throwable for yielding and resuming coroutines.
+	 * <p>
+	 * Switching coroutines is common, and so rather than allocating a new throwable each time, each {@link LuaState}
+	 * has a single instance which is reused by {@link #yield(LuaState, Varargs)} and
+	 * {@link #resume(LuaState, LuaThread, Varargs)}. This is safe, as only one unwind may be in progress at once, and
+	 * {@link LuaThread} reads the arguments out of it as soon as it is caught.
+	 *
+	 * @return The new throwable.
+	 */
+	static UnwindThrowable create() {
+		return new UnwindThrowable(Constants.NONE, null, false, true);
+	}
+
 	/**
 	 * Create a yield with the specified arguments
 	 *
-	 * @param args The arguments to yield with
+	 * @param state The current Lua state.
+	 * @param args  The arguments to yield with
 	 * @return The throwable to yield with
 	 */
-	static UnwindThrowable yield(Varargs args) {
+	static UnwindThrowable yield(LuaState state, Varargs args) {
 		Objects.requireNonNull(args, "args cannot be null");
-		return new UnwindThrowable(args, null, false, true);
+		UnwindThrowable unwind = state.unwind;
+		unwind.args = args;
+		unwind.thread = null;
+		unwind.yield = true;
+		return unwind;
 	}
 
 	/**
 	 * Suspend this thread and enter a different thread
 	 *
+	 * @param state  The current Lua state.
 	 * @param thread The thread to resume
 	 * @param args   The arguments to resume with
 	 * @return The throwable to resume with
 	 */
-	static UnwindThrowable resume(LuaThread thread, Varargs args) {
-		return new UnwindThrowable(args, thread, false, false);
+	static UnwindThrowable resume(LuaState state, LuaThread thread, Varargs args) {
+		UnwindThrowable unwind = state.unwind;
+		unwind.args = args;
+		unwind.thread = thread;
+		unwind.yield = false;
+		return unwind;
 	}
 
 	/**
@@ -79,6 +105,15 @@ public final class UnwindThrowable extends Throwable {
 		return suspendCache;
 	}
 
+	/**
+	 * Clear the values held by this throwable once it has been handled, so that they may be garbage collected.
+	 */
+	void clear() {
+		if (suspend) return;
+		args = Constants.NONE;
+		thread = null;
+	}
+
 	/**
 	 * Whether this throwable should suspend all threads, rather than just the current one
 	 *
@@ -118,7 +153,7 @@ public final class UnwindThrowable extends Throwable {
 	 */
 	public LuaThread getThread() {
 		if (yield) throw new IllegalStateException("Cannot get thread for yielding");
-		return thread;
+		return Objects.requireNonNull(thread, "thread cannot be null");
 	}
 
 	@Override
@@ -25,7 +25,9 @@
 package org.squiddev.cobalt;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public final class ValueFactory {
 	private static final int MAX_DEPTH = 5;
@@ -113,9 +115,19 @@ public final class ValueFactory {
 	 * @return new {@link LuaTable} instance with sequential elements coming from the array.
 	 */
 	public static LuaTable listOf(LuaValue... values) {
-		LuaTable table = new LuaTable(values.length, 0);
-		for (int i = 0; i < values.length; i++) table.rawset(i + 1, values[i]);
-		return table;
+		return LuaTable.wrap(Arrays.copyOf(values, values.length, Object[].class));
+	}
+
+	/**
+	 * Construct a {@link LuaTable} initialized with the values of a collection.
+	 *
+	 * @param values The values to use in initialization, in iteration order. These may be {@link Constants#NIL}, but
+	 *               not {@code null}.
+	 * @return new {@link LuaTable} instance with sequential elements coming from the collection.
+	 * @throws NullPointerException If the collection contains {@code null}.
+	 */
+	public static LuaTable listOf(Collection<? extends LuaValue> values) {
+		return LuaTable.wrap(values.toArray(new Object[0]));
 	}
 
 	/**
@@ -126,10 +138,46 @@ public final class ValueFactory {
 	 * @return new {@link LuaTable} instance with non-sequential keys coming from the supplied array.
 	 */
 	public static LuaTable tableOf(LuaValue... items) throws LuaError {
-		LuaTable table = new LuaTable(0, items.length >> 1);
+		LuaValue[] keys = new LuaValue[items.length >> 1];
+		LuaValue[] values = new LuaValue[keys.length];
+		int count = 0;
 		for (int i = 0; i < items.length; i += 2) {
-			if (!items[i + 1].isNil()) table.rawset(items[i], items[i + 1]);
+			if (items[i + 1].isNil()) continue;
+			keys[count] = items[i];
+			values[count++] = items[i + 1];
+		}
+
+		return tableOf(keys, values, count);
+	}
+
+	/**
+	 * Construct a {@link LuaTable} initialized with the entries of a map.
+	 *
+	 * @param items The keys and values to use in initialization.
+	 * @return new {@link LuaTable} instance with the entries from the supplied map.
+	 * @throws LuaError If any key is {@code nil} or NaN.
+	 */
+	public static LuaTable tableOf(Map<? extends LuaValue, ? extends LuaValue> items) throws LuaError {
+		LuaValue[] keys = new LuaValue[items.size()];
+		LuaValue[] values = new LuaValue[keys.length];
+		int count = 0;
+		for (Map.Entry<? extends LuaValue, ? extends LuaValue> item : items.entrySet()) {
+			if (item.getValue().isNil()) continue;
+			keys[count] = item.getKey();
+			values[count++] = item.getValue();
 		}
+
+		return tableOf(keys, values, count);
+	}
+
+	private static LuaTable tableOf(LuaValue[] keys, LuaValue[] values, int count) throws LuaError {
+		if (count < keys.length) {
+			keys = Arrays.copyOf(keys, count);
+			values = Arrays.copyOf(values, count);
+		}
+
+		LuaTable table = new LuaTable();
+		table.rawsetAll(keys, values);
 		return table;
 	}
 
@@ -179,6 +227,7 @@ public final class ValueFactory {
 			case 0 -> Constants.NONE;
 			case 1 -> v[0];
 			case 2 -> new LuaValue.PairVarargs(v[0], v[1]);
+			case 3 -> new LuaValue.TripleVarargs(v[0], v[1], v[2]);
 			default -> new LuaValue.ArrayVarargs(v, Constants.NONE);
 		};
 	}
@@ -196,6 +245,7 @@ public final class ValueFactory {
 			case 0 -> Constants.NONE;
 			case 1 -> v.get(0);
 			case 2 -> new LuaValue.PairVarargs(v.get(0), v.get(1));
+			case 3 -> new LuaValue.TripleVarargs(v.get(0), v.get(1), v.get(2));
 			default -> new LuaValue.ArrayVarargs(v.toArray(new LuaValue[0]), Constants.NONE);
 		};
 	}
@@ -215,6 +265,7 @@ public final class ValueFactory {
 			case 0 -> Constants.NONE;
 			case 1 -> v[offset];
 			case 2 -> new LuaValue.PairVarargs(v[offset + 0], v[offset + 1]);
+			case 3 -> new LuaValue.TripleVarargs(v[offset + 0], v[offset + 1], v[offset + 2]);
 			default -> new LuaValue.ArrayVarargs(Arrays.copyOfRange(v, offset, offset + length), Constants.NONE);
 		};
 	}
@@ -285,6 +336,7 @@ public final class ValueFactory {
 			return new LuaValue.ArrayVarargs(values, Constants.NONE);
 		}
 
+		if (v3 instanceof LuaValue value) return new LuaValue.TripleVarargs(v1, v2, value);
 		return v3.count() == 0 ? new LuaValue.PairVarargs(v1, v2) : new LuaValue.ArrayVarargs(new LuaValue[]{v1, v2}, v3);
 	}
 }
@@ -120,6 +120,7 @@ public abstract class Varargs {
 		return switch (end - start) {
 			case 0 -> arg(start);
 			case 1 -> new LuaValue.PairVarargs(arg(start), arg(end));
+			case 2 -> new LuaValue.TripleVarargs(arg(start), arg(start + 1), arg(end));
 			default -> end < start ? Constants.NONE : new SubVarargs(this, start, end);
 		};
 	}
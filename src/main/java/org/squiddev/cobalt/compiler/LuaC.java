@@ -202,7 +202,7 @@ public class LuaC {
 
 		@Override
 		public int read() throws CompileException, UnwindThrowable, LuaError {
-			if (state != null && state.isInterrupted()) state.handleInterrupt();
+			if (state != null && state.pollInterrupt()) state.handleInterrupt();
 
 			try {
 				return stream.read();
@@ -27,6 +27,7 @@ package org.squiddev.cobalt.debug;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.squiddev.cobalt.*;
 import org.squiddev.cobalt.function.LuaClosure;
+import org.squiddev.cobalt.function.LuaFunction;
 import org.squiddev.cobalt.lib.DebugLib;
 
 import java.util.Objects;
@@ -52,16 +53,6 @@ public final class DebugHelpers {
 	private static final LuaString FUNCTION = valueOf("function");
 	private static final LuaString C = valueOf("[C]");
 
-	/**
-	 * Size of the first part of the stack
-	 */
-	private static final int LEVELS1 = 10;
-
-	/**
-	 * Size of the second part of the stack
-	 */
-	private static final int LEVELS2 = 11;
-
 	private DebugHelpers() {
 	}
 
@@ -84,43 +75,64 @@ public final class DebugHelpers {
 	 * @param level  0-based level to start reporting on
 	 */
 	public static Buffer traceback(Buffer sb, LuaThread thread, int level) {
+		return traceback(sb, Traceback.capture(thread, level));
+	}
+
+	static Buffer traceback(Buffer sb, Traceback traceback) {
 		sb.append("stack traceback:");
 
-		DebugState state = thread.getDebugState();
-		int n1 = state.top - level > LEVELS1 + LEVELS2 ? LEVELS1 : -1;
-		for (DebugFrame di; (di = state.getFrame(level++)) != null; ) {
-			if (n1-- == 0) {
+		for (int i = 0, size = traceback.size(); i < size; i++) {
+			if (i == traceback.elided) {
 				sb.append("\n\t...");
-				level = state.top - LEVELS2 + 1;
 				continue;
 			}
 
+			LuaFunction func = traceback.functions[i];
+			LuaClosure closure = traceback.closures[i];
+			int pc = traceback.pcs[i];
+			int flags = traceback.flags[i];
+
 			sb.append("\n\t");
-			sb.append(di.closure == null ? C : di.closure.getPrototype().shortSource());
+			sb.append(closure == null ? C : closure.getPrototype().shortSource());
 			sb.append(':');
-			if (di.currentLine() > 0) sb.append(Integer.toString(di.currentLine())).append(":");
+			int line = currentLine(closure, pc);
+			if (line > 0) sb.append(Integer.toString(line)).append(":");
 			sb.append(" in ");
 
-			ObjectName kind = di.getFuncKind();
+			ObjectName kind = null;
+			if ((flags & FLAG_TAIL) == 0 && i + 1 < size) {
+				// The calling frame is always captured, even when it is elided.
+				LuaClosure previous = traceback.closures[i + 1];
+				int previousPc = traceback.pcs[i + 1];
+				if (previous != null && previousPc >= 0) {
+					kind = getFuncName(previous, previousPc, traceback.flags[i + 1]);
+				}
+			}
 
 			if (kind != null) {
 				// Strictly speaking we should search the global table for this term - see Lua 5.3's pushglobalfuncname/
 				// pushfuncname. However, I'm somewhat reluctant to do that, so we just check it's a global.
 				sb.append(kind.what() == GLOBAL ? FUNCTION : kind.what()).append(" '").append(kind.name()).append('\'');
-			} else if (di.func instanceof LuaClosure closure && closure.getPrototype().lineDefined == 0) {
+			} else if (func instanceof LuaClosure c && c.getPrototype().lineDefined == 0) {
 				sb.append("main chunk");
-			} else if (di.func instanceof LuaClosure) {
-				sb.append("function <").append(di.func.debugName()).append(">");
+			} else if (func instanceof LuaClosure) {
+				sb.append("function <").append(func.debugName()).append(">");
 			} else {
 				sb.append('?');
 			}
 
-			if ((di.flags & FLAG_TAIL) != 0) sb.append("\n\t(...tail calls...)");
+			if ((flags & FLAG_TAIL) != 0) sb.append("\n\t(...tail calls...)");
 		}
 
 		return sb;
 	}
 
+	private static int currentLine(@Nullable LuaClosure closure, int pc) {
+		if (closure == null) return -1;
+		int[] li = closure.getPrototype().lineInfo;
+		return li == null || pc < 0 || pc >= li.length ? -1 : li[pc];
+	}
+
 	/**
 	 * Get file and line for the nearest calling closure.
 	 *
@@ -151,15 +163,18 @@ public final class DebugHelpers {
 	}
 
 	public static @Nullable ObjectName getFuncName(DebugFrame di, int stackpos) {
-		if (di.closure == null) return null;
-		if ((di.flags & FLAG_ANY_HOOK) != 0) return new ObjectName(QUESTION, HOOK);
+		return getFuncName(di.closure, di.pc, di.flags);
+	}
+
+	static @Nullable ObjectName getFuncName(@Nullable LuaClosure closure, int pc, int flags) {
+		if (closure == null) return null;
+		if ((flags & FLAG_ANY_HOOK) != 0) return new ObjectName(QUESTION, HOOK);
 
-		Prototype p = di.closure.getPrototype();
-		int pc = di.pc; // currentpc(L, ci);
+		Prototype p = closure.getPrototype();
 		int i = p.code[pc];
 		return switch (GET_OPCODE(i)) {
-			case OP_CALL, OP_TAILCALL -> getObjectName(di, GETARG_A(i));
-			case OP_SELF, OP_GETTABLE -> fromMetamethod("index");
+			case OP_CALL, OP_TAILCALL -> getObjectName(p, pc, GETARG_A(i));
+			case OP_SELF, OP_GETTABUP, OP_GETTABLE -> fromMetamethod("index");
 			case OP_SETTABLE -> fromMetamethod("newindex");
 			case OP_ADD -> fromMetamethod("add");
 			case OP_SUB -> fromMetamethod("sub");
@@ -182,14 +197,16 @@ public final class DebugHelpers {
 		if (di.closure == null) return null;
 		if ((di.flags & FLAG_ANY_HOOK) != 0) return new ObjectName(QUESTION, HOOK);
 
-		Prototype p = di.closure.getPrototype();
-		int pc = di.pc; // currentpc(L, ci);
-		LuaString name = p.getLocalName(stackpos + 1, pc);
+		return getObjectName(di.closure.getPrototype(), di.pc, stackpos);
+	}
+
+	private static @Nullable ObjectName getObjectName(Prototype p, int lastPc, int stackpos) {
+		LuaString name = p.getLocalName(stackpos + 1, lastPc);
 
 		// is a local?
 		if (name != null) return new ObjectName(name, LOCAL);
 
-		pc = findSetReg(p, pc, stackpos); /* try symbolic execution */
+		int pc = findSetReg(p, lastPc, stackpos); /* try symbolic execution */
 		if (pc == -1) return null;
 
 		int i = p.code[pc];
@@ -197,7 +214,7 @@ public final class DebugHelpers {
 			case OP_MOVE -> {
 				int a = GETARG_A(i);
 				int b = GETARG_B(i); /* move from `b' to `a' */
-				if (b < a) return getObjectName(di, b); /* get name for `b' */
+				if (b < a) return getObjectName(p, lastPc, b); /* get name for `b' */
 			}
 			case OP_GETTABUP, OP_GETTABLE -> {
 				int t = GETARG_B(i);
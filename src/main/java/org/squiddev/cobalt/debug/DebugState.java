@@ -24,6 +24,7 @@
  */
 package org.squiddev.cobalt.debug;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.squiddev.cobalt.*;
 import org.squiddev.cobalt.function.Dispatch;
 
@@ -110,6 +111,14 @@ public final class DebugState {
 	 */
 	public int hookPendingCount;
 
+	/**
+	 * Unused stacks of debug frames, which may be reused by new coroutines. This is only used on the main thread's
+	 * state, and is shared by all other threads.
+	 *
+	 * @see #framePool()
+	 */
+	private @Nullable FramePool framePool;
+
 	public DebugState(LuaState state) {
 		this.state = state;
 	}
@@ -146,7 +155,10 @@ public final class DebugState {
 
 		DebugFrame[] frames = stack;
 		int length = frames.length;
-		if (top >= length) frames = stack = growStackOrOverflow(frames, top);
+		if (top >= length) {
+			DebugFrame[] pooled = length == 0 ? framePool().take() : null;
+			frames = stack = pooled != null ? pooled : growStackOrOverflow(frames, top);
+		}
 		this.top = top;
 		return frames[top];
 	}
@@ -198,6 +210,30 @@ public final class DebugState {
 		}
 	}
 
+	/**
+	 * Release this state's stack to the {@linkplain FramePool pool of frames}, so that it can be reused by
+	 * another coroutine. This should be called once a coroutine has finished, and does nothing if the stack is not
+	 * empty.
+	 */
+	public void recycle() {
+		if (top != -1 || stack.length == 0) return;
+
+		framePool().release(stack);
+		stack = EMPTY;
+		javaCount = 0;
+	}
+
+	/**
+	 * Get the pool of frames shared by all threads in this state.
+	 *
+	 * @return The frame pool.
+	 */
+	private FramePool framePool() {
+		DebugState main = state.getMainThread().getDebugState();
+		FramePool pool = main.framePool;
+		return pool != null ? pool : (main.framePool = new FramePool());
+	}
+
 	/**
 	 * Pop a debug info off the stack
 	 */
@@ -296,6 +332,12 @@ public final class DebugState {
 	 * @throws UnwindThrowable If the hook transfers control to another coroutine.
 	 */
 	public void onReturn(DebugFrame frame, Varargs result) throws LuaError, UnwindThrowable {
+		// Check both hooks which run on return at once, so the common case of no hooks only reads the mask once.
+		if ((hookMask & (HOOK_RETURN | HOOK_LINE)) == 0) {
+			popInfo();
+			return;
+		}
+
 		if ((hookMask & HOOK_RETURN) != 0 && !inhook) returnHook(frame, result);
 		onReturnNoHook();
 	}
@@ -467,4 +509,39 @@ public final class DebugState {
 		onReturn(getStackUnsafe(), result);
 		return result;
 	}
+
+	/**
+	 * A pool of unused {@link DebugFrame} stacks, shared by all threads in a {@link LuaState}.
+	 * <p>
+	 * Short-lived coroutines (such as those created by {@code coroutine.wrap}) would otherwise allocate a new stack of
+	 * frames each time they are run. Instead, a coroutine's stack is {@linkplain #recycle() returned to the pool} when
+	 * it finishes, and taken from the pool when a new coroutine is first run.
+	 */
+	private static final class FramePool {
+		/**
+		 * The maximum number of stacks to keep in the pool.
+		 */
+		private static final int MAX_POOLED = 16;
+
+		/**
+		 * The maximum size of a stack to keep in the pool. Larger stacks are left for the garbage collector, so a
+		 * single deeply nested coroutine does not keep its stack alive forever.
+		 */
+		private static final int MAX_POOLED_SIZE = DEFAULT_SIZE * 4;
+
+		private final DebugFrame[][] stacks = new DebugFrame[MAX_POOLED][];
+		private int size;
+
+		DebugFrame @Nullable [] take() {
+			if (size == 0) return null;
+
+			DebugFrame[] stack = stacks[--size];
+			stacks[size] = null;
+			return stack;
+		}
+
+		void release(DebugFrame[] stack) {
+			if (size < MAX_POOLED && stack.length <= MAX_POOLED_SIZE) stacks[size++] = stack;
+		}
+	}
 }
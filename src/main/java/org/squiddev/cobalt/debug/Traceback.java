@@ -0,0 +1,105 @@
+package org.squiddev.cobalt.debug;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.squiddev.cobalt.Buffer;
+import org.squiddev.cobalt.LuaThread;
+import org.squiddev.cobalt.function.LuaClosure;
+import org.squiddev.cobalt.function.LuaFunction;
+
+/**
+ * A snapshot of a thread's call stack, which may be formatted into a traceback at a later point.
+ * <p>
+ * This only records the function, program counter and flags of each frame, deferring the work of resolving line
+ * numbers and function names until {@link #format()} is called. As with {@link DebugHelpers#traceback(LuaThread, int)},
+ * only the top {@value #LEVELS1} and bottom {@value #LEVELS2} frames of deep stacks are kept.
+ * <p>
+ * The snapshot holds strong references to every captured {@link LuaFunction} (and so their upvalues and environments).
+ * Code which holds on to errors for a long time (for instance, logging them later) will keep these functions alive
+ * until the traceback is discarded.
+ */
+public final class Traceback {
+	/**
+	 * Size of the first part of the stack
+	 */
+	static final int LEVELS1 = 10;
+
+	/**
+	 * Size of the second part of the stack
+	 */
+	static final int LEVELS2 = 11;
+
+	final @Nullable LuaFunction[] functions;
+	final @Nullable LuaClosure[] closures;
+	final int[] pcs;
+	final int[] flags;
+
+	/**
+	 * The index of the frame which is omitted from the traceback, or {@code -1} if all frames are shown. This frame
+	 * is still captured, as it is needed to find the name of the function above it.
+	 */
+	final int elided;
+
+	private Traceback(int size, int elided) {
+		functions = new LuaFunction[size];
+		closures = new LuaClosure[size];
+		pcs = new int[size];
+		flags = new int[size];
+		this.elided = elided;
+	}
+
+	/**
+	 * Capture the current stack of a thread.
+	 *
+	 * @param thread LuaThread to capture the stack of.
+	 * @param level  0-based level to start capturing from.
+	 * @return The captured stack.
+	 */
+	public static Traceback capture(LuaThread thread, int level) {
+		DebugState state = thread.getDebugState();
+
+		Traceback traceback;
+		if (level < 0) {
+			traceback = new Traceback(0, -1);
+		} else if (state.top - level > LEVELS1 + LEVELS2) {
+			traceback = new Traceback(LEVELS1 + 1 + LEVELS2, LEVELS1);
+			for (int i = 0; i <= LEVELS1; i++) traceback.set(i, state.getFrame(level + i));
+			for (int i = 0; i < LEVELS2; i++) traceback.set(LEVELS1 + 1 + i, state.getFrame(state.top - LEVELS2 + 1 + i));
+		} else {
+			int size = Math.max(0, state.top - level + 1);
+			traceback = new Traceback(size, -1);
+			for (int i = 0; i < size; i++) traceback.set(i, state.getFrame(level + i));
+		}
+
+		return traceback;
+	}
+
+	private void set(int index, DebugFrame frame) {
+		functions[index] = frame.func;
+		closures[index] = frame.closure;
+		pcs[index] = frame.pc;
+		flags[index] = frame.flags;
+	}
+
+	int size() {
+		return pcs.length;
+	}
+
+	/**
+	 * Append this traceback to a buffer.
+	 *
+	 * @param sb The buffer to append to.
+	 * @return The provided buffer.
+	 */
+	public Buffer format(Buffer sb) {
+		return DebugHelpers.traceback(sb, this);
+	}
+
+	/**
+	 * Format this traceback.
+	 *
+	 * @return This traceback, in the same format as {@code debug.traceback}.
+	 */
+	public String format() {
+		return format(new Buffer()).toString();
+	}
+}
@@ -198,7 +198,7 @@ public final class Dispatch {
 	public static LuaFunction getCallMetamethod(LuaState state, LuaValue value, int stack) throws LuaError {
 		assert !(value instanceof LuaFunction);
 
-		LuaValue func = value.metatag(state, Constants.CALL);
+		LuaValue func = value.metatag(state, CachedMetamethod.CALL);
 		if (!(func instanceof LuaFunction metaFunc)) {
 			throw ErrorFactory.operandError(state, value, "call", stack);
 		}
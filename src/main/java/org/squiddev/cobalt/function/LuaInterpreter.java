@@ -24,11 +24,15 @@
  */
 package org.squiddev.cobalt.function;
 
+import cc.tweaked.cobalt.internal.BuiltinIterators;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.squiddev.cobalt.*;
 import org.squiddev.cobalt.debug.DebugFrame;
 import org.squiddev.cobalt.debug.DebugState;
 import org.squiddev.cobalt.debug.Upvalue;
 
+import java.util.Arrays;
+
 import static org.squiddev.cobalt.Constants.*;
 import static org.squiddev.cobalt.Lua.*;
 import static org.squiddev.cobalt.LuaDouble.valueOf;
@@ -142,6 +146,146 @@ final class LuaInterpreter {
 		ds.onCall(di);
 	}
 
+	/**
+	 * Attempt to perform a single step of a generic {@code for} loop using one of the built-in iterators
+	 * ({@code next} or {@code ipairs}'s iterator), writing the results directly to the stack rather than calling the
+	 * function.
+	 *
+	 * @param state The current Lua state.
+	 * @param ds    The current debug state.
+	 * @param stack The current stack.
+	 * @param a     The base register of the loop.
+	 * @param c     The number of loop variables.
+	 * @return Whether this step was handled. If {@code false}, the iterator should be called as normal.
+	 */
+	private static boolean tryIterate(LuaState state, DebugState ds, LuaValue[] stack, int a, int c) {
+		// Call hooks should still observe the iterator being called.
+		if (ds.hasCallHook() || !(stack[a + 1] instanceof LuaTable table)) return false;
+
+		LuaValue iterator = stack[a];
+		if (BuiltinIterators.isNext(iterator)) {
+			try {
+				table.next(stack[a + 2], stack, a + 3, c);
+			} catch (LuaError e) {
+				// Fall back to calling next, so the error is thrown from within it (and so includes it in the
+				// traceback), as it would be without this fast path.
+				return false;
+			}
+			return true;
+		} else if (BuiltinIterators.isInext(iterator)) {
+			if (!(stack[a + 2] instanceof LuaInteger control) || table.getMetatable(state) != null) return false;
+
+			int key = control.intValue() + 1;
+			LuaValue value = table.rawget(key);
+			stack[a + 3] = value.isNil() ? NIL : ValueFactory.valueOf(key);
+			if (c >= 2) stack[a + 4] = value;
+			for (int j = 3; j <= c; j++) stack[a + 2 + j] = NIL;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Push a new frame calling a metamethod. The frame is run in the current interpreter loop, rather than calling the
+	 * interpreter recursively, and so does not consume any Java stack. Once the metamethod returns,
+	 * {@link #resume(LuaState, DebugFrame, LuaInterpretedFunction, Varargs)} stores its result into the calling frame,
+	 * as if the metamethod had yielded.
+	 *
+	 * @param ds       The current debug state.
+	 * @param function The metamethod to call.
+	 * @param arg1     The first argument to the metamethod.
+	 * @param arg2     The second argument to the metamethod.
+	 * @return The new frame.
+	 * @throws LuaError        On a stack overflow.
+	 * @throws UnwindThrowable If a call hook yields.
+	 */
+	private static DebugFrame pushCall(DebugState ds, LuaInterpretedFunction function, LuaValue arg1, LuaValue arg2) throws LuaError, UnwindThrowable {
+		DebugFrame frame = ds.pushInfo();
+		setupCall(ds, frame, function, arg1, arg2, 0);
+		return frame;
+	}
+
+	/**
+	 * Index a value, as done by {@code OP_GETTABUP}, {@code OP_GETTABLE} and {@code OP_SELF}.
+	 * <p>
+	 * If {@code obj} is a table which does not contain {@code key}, and its {@code __index} metamethod is a Lua function,
+	 * this {@linkplain #pushCall(DebugState, LuaInterpretedFunction, LuaValue, LuaValue) pushes a new frame} calling the
+	 * metamethod, rather than calling it recursively. In this case, this returns {@code null}, and the interpreter should
+	 * continue by executing the new frame.
+	 *
+	 * @param state The current Lua state.
+	 * @param ds    The current debug state.
+	 * @param p     The prototype of the currently executing function.
+	 * @param pc    The program counter of the current instruction.
+	 * @param obj   The value to index.
+	 * @param key   The key to look up.
+	 * @param c     The instruction's C argument, used to determine whether the key is a constant.
+	 * @param stack The register (or upvalue) holding {@code obj}, used for error messages.
+	 * @return The value of {@code obj[key]}, or {@code null} if a new frame was pushed.
+	 * @throws LuaError        If the value cannot be indexed.
+	 * @throws UnwindThrowable If the {@code __index} metamethod yielded.
+	 */
+	private static @Nullable LuaValue index(LuaState state, DebugState ds, Prototype p, int pc, LuaValue obj, LuaValue key, int c, int stack) throws LuaError, UnwindThrowable {
+		if (obj instanceof LuaTable table) {
+			LuaValue value = table.rawget(key);
+			if (!value.isNil()) return value;
+
+			LuaValue tm = table.metatag(state, CachedMetamethod.INDEX);
+			if (tm.isNil()) return NIL;
+			if (tm instanceof LuaInterpretedFunction index) {
+				pushCall(ds, index, obj, key);
+				return null;
+			}
+
+			// We've already missed on the table itself, so skip straight to the __index lookup.
+			return key instanceof LuaString stringKey && ISK(c)
+				? OperationHelper.getIndex(state, obj, tm, stringKey, p, pc)
+				: OperationHelper.getIndex(state, obj, tm, key);
+		}
+
+		return key instanceof LuaString stringKey && ISK(c)
+			? OperationHelper.getTable(state, obj, stringKey, p, pc, stack)
+			: OperationHelper.getTable(state, obj, key, stack);
+	}
+
+	/**
+	 * Attempt to return values directly into the registers of a calling function. This is equivalent to calling
+	 * {@link #resume(LuaState, DebugFrame, LuaInterpretedFunction, Varargs)}, but avoids allocating a {@link Varargs}
+	 * to hold the return values.
+	 *
+	 * @param di     The frame of the calling function.
+	 * @param p      The prototype of the calling function.
+	 * @param values The array holding the returned values.
+	 * @param offset The offset of the first returned value.
+	 * @param count  The number of returned values.
+	 * @return Whether the values were returned. If {@code false}, the caller should be resumed as normal.
+	 */
+	private static boolean returnInto(DebugFrame di, Prototype p, LuaValue[] values, int offset, int count) {
+		int i = p.code[di.pc];
+		int a = GETARG_A(i), c = GETARG_C(i);
+
+		// Other callers are either metamethods (which only want a single value) or generic for loops. The latter are
+		// always called with Dispatch, and so never reach here.
+		if (GET_OPCODE(i) != OP_CALL) return false;
+
+		// A variable number of results are kept around as a Varargs, so we cannot avoid allocating here.
+		if (c == 0) return false;
+		int wanted = c - 1;
+		di.extras = NONE;
+
+		LuaValue[] stack = di.stack;
+		if (wanted <= count) {
+			System.arraycopy(values, offset, stack, a, wanted);
+		} else {
+			System.arraycopy(values, offset, stack, a, count);
+			Arrays.fill(stack, a + count, a + wanted, NIL);
+		}
+
+		di.pc++;
+		return true;
+	}
+
 	/*
 	 ** converts back a "floating point byte" to an integer.
 	 ** The floating point byte  is represented as
@@ -174,7 +318,7 @@ final class LuaInterpreter {
 			// process instructions
 			while (true) {
 				di.pc = pc;
-				if (state.isInterrupted()) state.handleInterrupt();
+				if (state.pollInterrupt()) state.handleInterrupt();
 				ds.onInstruction(di, pc);
 
 				// pull out instruction
@@ -219,14 +363,28 @@ final class LuaInterpreter {
 					case OP_GETTABUP: {// A B C: R(A) := UpValue[B][RK(C)]
 						int b = GETARG_B(i);
 						int c = GETARG_C(i);
-						stack[a] = OperationHelper.getTable(state, upvalues[b].getValue(), getRK(stack, k, c), -b - 1);
+						LuaValue value = index(state, ds, p, pc - 1, upvalues[b].getValue(), getRK(stack, k, c), c, -b - 1);
+						if (value == null) {
+							di = ds.getStackUnsafe();
+							function = (LuaInterpretedFunction) di.func;
+							continue newFrame;
+						}
+
+						stack[a] = value;
 						break;
 					}
 
 					case OP_GETTABLE: { // A B C: R(A):= R(B)[RK(C)]
 						int b = GETARG_B(i);
 						int c = GETARG_C(i);
-						stack[a] = OperationHelper.getTable(state, stack[b], getRK(stack, k, c), b);
+						LuaValue value = index(state, ds, p, pc - 1, stack[b], getRK(stack, k, c), c, b);
+						if (value == null) {
+							di = ds.getStackUnsafe();
+							function = (LuaInterpretedFunction) di.func;
+							continue newFrame;
+						}
+
+						stack[a] = value;
 						break;
 					}
 
@@ -255,8 +413,15 @@ final class LuaInterpreter {
 					case OP_SELF: { // A B C: R(A+1):= R(B): R(A):= R(B)[RK(C)]
 						int b = GETARG_B(i);
 						int c = GETARG_C(i);
-						LuaValue o = stack[a + 1] = stack[b];
-						stack[a] = OperationHelper.getTable(state, o, getRK(stack, k, c), b);
+						LuaValue obj = stack[a + 1] = stack[b];
+						LuaValue value = index(state, ds, p, pc - 1, obj, getRK(stack, k, c), c, b);
+						if (value == null) {
+							di = ds.getStackUnsafe();
+							function = (LuaInterpretedFunction) di.func;
+							continue newFrame;
+						}
+
+						stack[a] = value;
 						break;
 					}
 
@@ -465,6 +630,18 @@ final class LuaInterpreter {
 						Varargs v = di.extras;
 						di.cleanup();
 
+						if (b > 0 && (flags & FLAG_FRESH) == 0 && !ds.hasReturnHook()) {
+							// Returning a fixed number of values to another Lua function. These are normally copied
+							// straight into the caller's registers, so try to do that without building a Varargs.
+							ds.onReturnNoHook();
+							di = ds.getStackUnsafe();
+							function = (LuaInterpretedFunction) di.func;
+							if (!returnInto(di, function.p, stack, a, b - 1)) {
+								resume(state, di, function, ValueFactory.varargsOfCopy(stack, a, b - 1));
+							}
+							continue newFrame;
+						}
+
 						Varargs ret = b > 0
 							? ValueFactory.varargsOfCopy(stack, a, b - 1)
 							: ValueFactory.varargsOfCopy(stack, a, top - v.count() - a, v);
@@ -505,8 +682,10 @@ final class LuaInterpreter {
 					}
 
 					case OP_TFORCALL: {
-						Varargs result = Dispatch.invoke(state, stack[a], ValueFactory.varargsOf(stack[a + 1], stack[a + 2]), a);
-						for (int c = GETARG_C(i); c >= 1; --c) stack[a + 2 + c] = result.arg(c);
+						if (!tryIterate(state, ds, stack, a, GETARG_C(i))) {
+							Varargs result = Dispatch.invoke(state, stack[a], ValueFactory.varargsOf(stack[a + 1], stack[a + 2]), a);
+							for (int c = GETARG_C(i); c >= 1; --c) stack[a + 2 + c] = result.arg(c);
+						}
 
 						i = code[pc++];
 						a = GETARG_A(i);
@@ -24,6 +24,7 @@
  */
 package org.squiddev.cobalt.lib;
 
+import cc.tweaked.cobalt.internal.BuiltinIterators;
 import cc.tweaked.cobalt.internal.LegacyEnv;
 import cc.tweaked.cobalt.internal.unwind.SuspendedAction;
 import org.squiddev.cobalt.*;
@@ -53,15 +54,19 @@ public final class BaseLib {
 	private static final LuaString LOAD_MODE = valueOf("bt");
 	private static final LuaString ASSERTION_FAILED = valueOf("assertion failed!");
 
-	private LuaValue next;
-	private LuaValue inext;
+	private static final LuaFunction NEXT = RegisteredFunction.ofV("next", BaseLib::next).create();
+	private static final LuaFunction INEXT = RegisteredFunction.ofS("inext", BaseLib::inext).create();
+
+	static {
+		// Allow the interpreter to special case generic for loops using these iterators.
+		BuiltinIterators.register(NEXT, INEXT);
+	}
 
 	private BaseLib() {
 	}
 
 	public static void add(LuaState state) {
 		var env = state.globals();
-		var self = new BaseLib();
 		env.rawset("_G", env);
 		env.rawset("_VERSION", valueOf("Lua 5.2"));
 		RegisteredFunction.bind(env, new RegisteredFunction[]{
@@ -79,18 +84,14 @@ public final class BaseLib {
 			RegisteredFunction.ofV("setmetatable", BaseLib::setmetatable),
 			RegisteredFunction.ofS("tostring", BaseLib::tostring),
 			RegisteredFunction.ofV("tonumber", BaseLib::tonumber),
-			RegisteredFunction.ofS("pairs", self::pairs),
-			RegisteredFunction.ofV("ipairs", self::ipairs),
+			RegisteredFunction.ofS("pairs", BaseLib::pairs),
+			RegisteredFunction.ofV("ipairs", BaseLib::ipairs),
 			RegisteredFunction.of("rawlen", BaseLib::rawlen),
-			RegisteredFunction.ofV("next", BaseLib::next),
 			RegisteredFunction.ofFactory("pcall", PCall::new),
 			RegisteredFunction.ofFactory("xpcall", XpCall::new),
 			RegisteredFunction.ofFactory("load", Load::new),
 		});
-
-		// remember next, and inext for use in pairs and ipairs
-		self.next = env.rawget("next");
-		self.inext = RegisteredFunction.ofS("inext", BaseLib::inext).create();
+		env.rawset("next", NEXT);
 	}
 
 	private static LuaValue error(LuaState state, LuaValue arg1, LuaValue arg2) throws LuaError {
@@ -136,7 +137,7 @@ public final class BaseLib {
 	private static LuaValue getmetatable(LuaState state, Varargs args) throws LuaError {
 		// getmetatable( object ) -> table
 		LuaTable mt = args.checkValue(1).getMetatable(state);
-		return mt != null ? mt.rawget(Constants.METATABLE).optValue(mt) : Constants.NIL;
+		return mt != null ? mt.rawget(CachedMetamethod.METATABLE).optValue(mt) : Constants.NIL;
 	}
 
 	private static Varargs loadstring(LuaState state, DebugFrame di, Varargs args) throws LuaError, UnwindThrowable {
@@ -175,6 +176,7 @@ public final class BaseLib {
 		LuaTable t = args.arg(1).checkTable();
 		LuaValue k = args.checkValue(2);
 		LuaValue v = args.checkValue(3);
+		t.checkWritable();
 		t.rawset(k, v);
 		return t;
 	}
@@ -194,9 +196,10 @@ public final class BaseLib {
 		}
 
 		final LuaTable mt0 = t.getMetatable(state);
-		if (mt0 != null && !mt0.rawget(Constants.METATABLE).isNil()) {
+		if (mt0 != null && !mt0.rawget(CachedMetamethod.METATABLE).isNil()) {
 			throw new LuaError("cannot change a protected metatable");
 		}
+		if (t instanceof LuaTable tbl) tbl.checkWritable();
 		t.setMetatable(state, mt);
 		return t;
 	}
@@ -220,29 +223,20 @@ public final class BaseLib {
 		}
 	}
 
-	private Varargs pairs(LuaState state, DebugFrame frame, Varargs args) throws LuaError, UnwindThrowable {
+	private static Varargs pairs(LuaState state, DebugFrame frame, Varargs args) throws LuaError, UnwindThrowable {
 		// pairs(t) -> iter-func, t, nil
 		LuaValue value = args.checkValue(1);
-		LuaValue pairs = value.metatag(state, Constants.PAIRS);
+		LuaValue pairs = value.metatag(state, CachedMetamethod.PAIRS);
 		if (pairs.isNil()) {
-			return varargsOf(next, value, Constants.NIL);
+			return varargsOf(NEXT, value, Constants.NIL);
 		} else {
 			return SuspendedAction.run(frame, () -> Dispatch.invoke(state, pairs, value));
 		}
 	}
 
-	private Varargs ipairs(LuaState state, Varargs args) throws LuaError {
+	private static Varargs ipairs(LuaState state, Varargs args) throws LuaError {
 		// ipairst) -> iter-func, t, 0
-		return varargsOf(inext, args.checkValue(1), Constants.ZERO);
-	}
-
-	private static LuaValue rawlen(LuaState state, LuaValue v) throws LuaError {
-		// rawlen( table | string ) -> int
-		return switch (v.type()) {
-			case Constants.TTABLE -> ValueFactory.valueOf(v.checkTable().length());
-			case Constants.TSTRING -> ValueFactory.valueOf(v.checkLuaString().length());
-			default -> throw ErrorFactory.argError(1, "table or string expected");
-		};
+		return varargsOf(INEXT, args.checkValue(1), Constants.ZERO);
 	}
 
 	private static Varargs next(LuaState state, Varargs args) throws LuaError {
@@ -267,6 +261,15 @@ public final class BaseLib {
 		});
 	}
 
+	private static LuaValue rawlen(LuaState state, LuaValue v) throws LuaError {
+		// rawlen( table | string ) -> int
+		return switch (v.type()) {
+			case Constants.TTABLE -> ValueFactory.valueOf(v.checkTable().length());
+			case Constants.TSTRING -> ValueFactory.valueOf(v.checkLuaString().length());
+			default -> throw ErrorFactory.argError(1, "table or string expected");
+		};
+	}
+
 	// pcall(f, arg1, ...) -> status, result1, ...
 	private static class PCall extends ResumableVarArgFunction<ProtectedCall> {
 		@Override
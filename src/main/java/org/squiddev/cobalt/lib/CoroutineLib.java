@@ -130,6 +130,14 @@ public final class CoroutineLib {
 		}
 	}
 
+	/**
+	 * The function returned by {@code coroutine.wrap}.
+	 * <p>
+	 * This resumes the coroutine with {@link LuaThread#resume(LuaState, LuaThread, Varargs)}, just like {@link Resume}.
+	 * That unwinds the Java stack back to {@link LuaThread}'s main loop, which is where hooks, interrupts and errors are
+	 * handled when switching coroutines. A faster path which switched directly would need its own copy of that
+	 * handling, so wrapped coroutines deliberately share the common path.
+	 */
 	private static class Wrapped extends ResumableVarArgFunction<Void> {
 		private final LuaThread thread;
 
@@ -301,7 +301,10 @@ public final class DebugLib {
 				case TSTRING -> state.stringMetatable = mt;
 				case TFUNCTION -> state.functionMetatable = mt;
 				case TTHREAD -> state.threadMetatable = mt;
-				default -> object.setMetatable(state, mt);
+				default -> {
+					if (object instanceof LuaTable tbl) tbl.checkWritable();
+					object.setMetatable(state, mt);
+				}
 			}
 			return TRUE;
 		} catch (LuaError e) {
@@ -510,7 +510,7 @@ class StringMatch {
 		}
 
 		boolean singlematch(int c, int poff, int ep) throws LuaError {
-			if (state.isInterrupted()) state.handleInterruptWithoutYield();
+			if (state.pollInterrupt()) state.handleInterruptWithoutYield();
 			return switch (p.charAt(poff)) {
 				case '.' -> true;
 				case L_ESC -> match_class(c, p.charAt(poff + 1));
@@ -525,7 +525,7 @@ class StringMatch {
 		 */
 		int match(int soffset, int poffset) throws LuaError {
 			while (true) {
-				if (state.isInterrupted()) state.handleInterruptWithoutYield();
+				if (state.pollInterrupt()) state.handleInterruptWithoutYield();
 
 				// Check if we are at the end of the pattern -
 				// equivalent to the '\0' case in the C version, but our pattern
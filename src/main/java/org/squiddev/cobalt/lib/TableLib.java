@@ -34,6 +34,8 @@ import org.squiddev.cobalt.function.LibFunction;
 import org.squiddev.cobalt.function.LuaFunction;
 import org.squiddev.cobalt.function.RegisteredFunction;
 
+import java.util.Arrays;
+
 import static org.squiddev.cobalt.Constants.*;
 import static org.squiddev.cobalt.ValueFactory.valueOf;
 import static org.squiddev.cobalt.ValueFactory.varargsOf;
@@ -63,6 +65,7 @@ public final class TableLib {
 			RegisteredFunction.of("getn", TableLib::getn),
 			RegisteredFunction.of("maxn", TableLib::maxn),
 			RegisteredFunction.of("create", TableLib::create),
+			RegisteredFunction.ofV("clear", TableLib::clear),
 			RegisteredFunction.ofS("remove", TableLib::remove),
 			RegisteredFunction.ofS("concat", TableLib::concat),
 			RegisteredFunction.ofS("insert", TableLib::insert),
@@ -81,6 +84,8 @@ public final class TableLib {
 
 	private static LuaValue checkTableLike(LuaState state, Varargs args, int index, int flags) throws LuaError {
 		LuaValue value = args.arg(index);
+		if ((flags & TABLE_WRITE) != 0 && value instanceof LuaTable table) table.checkWritable();
+
 		if (!(value instanceof LuaTable)) {
 			LuaTable metatable = value.getMetatable(state);
 			if (metatable != null
@@ -115,13 +120,26 @@ public final class TableLib {
 		return valueOf(max);
 	}
 
-	private static LuaValue create(LuaState state, LuaValue arg1, LuaValue arg2) throws LuaError {
-		// create(seq[, rest]) -> table
+	private static LuaValue create(LuaState state, LuaValue arg1, LuaValue arg2, LuaValue arg3) throws LuaError {
+		// create(seq[, rest[, value]]) -> table
 		int seq = arg1.checkInteger();
 		int rest = arg2.optInteger(0);
 		if (seq < 0 || seq >= Integer.MAX_VALUE - 1) throw ErrorFactory.argError(1, "out of range");
-		if (rest < 0 || rest >= Integer.MAX_VALUE - 1) throw ErrorFactory.argError(1, "out of range");
-		return new LuaTable(seq, rest);
+		if (rest < 0 || rest >= Integer.MAX_VALUE - 1) throw ErrorFactory.argError(2, "out of range");
+
+		LuaTable table = new LuaTable(seq, rest);
+		if (!arg3.isNil()) {
+			for (int i = 1; i <= seq; i++) table.rawset(i, arg3);
+		}
+		return table;
+	}
+
+	private static Varargs clear(LuaState state, Varargs args) throws LuaError {
+		// clear(table[, shrink])
+		LuaTable table = args.arg(1).checkTable();
+		table.checkWritable();
+		table.clear(args.arg(2).toBoolean());
+		return NONE;
 	}
 
 	private static Varargs remove(LuaState state, DebugFrame frame, Varargs args) throws LuaError, UnwindThrowable {
@@ -166,10 +184,61 @@ public final class TableLib {
 			int start = args.arg(3).optInteger(1);
 			length = args.arg(4).optInteger(length);
 
+			if (table instanceof LuaTable tbl && tbl.getMetatable(state) == null) {
+				return concatTable(tbl, separator, start, length);
+			}
+
 			return concatImpl(state, table, separator, start, length);
 		});
 	}
 
+	/**
+	 * Concatenate the contents of a table with no metatable. We first compute the length of the resulting string, and
+	 * then copy each element directly into an exactly-sized array.
+	 * <p>
+	 * Numbers are converted to strings in the first pass, and the converted strings are kept (in order) for the second
+	 * pass, so each is only converted once.
+	 */
+	private static LuaString concatTable(LuaTable table, LuaString sep, int start, int end) throws LuaError {
+		if (start > end) return EMPTYSTRING;
+
+		LuaString[] numbers = null;
+		int numberCount = 0;
+
+		// Be careful to avoid overflow when end == Integer.MAX_VALUE.
+		long size = (long) sep.length() * ((long) end - start);
+		for (int i = start; ; i++) {
+			LuaValue value = table.rawget(i);
+			LuaString string;
+			if (value instanceof LuaString str) {
+				string = str;
+			} else {
+				string = value.checkLuaString();
+				if (numbers == null) {
+					numbers = new LuaString[8];
+				} else if (numberCount == numbers.length) {
+					numbers = Arrays.copyOf(numbers, numberCount * 2);
+				}
+				numbers[numberCount++] = string;
+			}
+
+			size += string.length();
+			if (i == end) break;
+		}
+		if (size > Integer.MAX_VALUE) throw new LuaError("resulting string too large");
+
+		byte[] out = new byte[(int) size];
+		int position = 0, number = 0;
+		for (int i = start; ; i++) {
+			LuaValue value = table.rawget(i);
+			position = (value instanceof LuaString str ? str : numbers[number++]).copyTo(out, position);
+			if (i == end) break;
+			position = sep.copyTo(out, position);
+		}
+
+		return LuaString.valueOf(out);
+	}
+
 	@AutoUnwind
 	private static LuaValue concatImpl(LuaState state, LuaValue table, LuaString sep, int i, int j) throws LuaError, UnwindThrowable {
 		Buffer sb = new Buffer();
@@ -233,7 +302,8 @@ public final class TableLib {
 		int end = args.arg(3).checkInteger();
 		int to = args.arg(4).checkInteger();
 		LuaValue dest = args.arg(5).optValue(args.first());
-		LuaValue source = checkTableLike(state, args, 1, TABLE_READ | TABLE_WRITE | TABLE_LEN);
+		LuaValue source = checkTableLike(state, args, 1, TABLE_READ | TABLE_LEN);
+		if (dest instanceof LuaTable destTbl) destTbl.checkWritable();
 
 		if (end < from) return dest;
 
@@ -247,11 +317,11 @@ public final class TableLib {
 			throw ErrorFactory.argError(4, "destination wrap around");
 		}
 
-		// If we've moving within the current table and have no metamethods, go through the table directly -
-		// should be more optimal.
-		if (source == dest && source instanceof LuaTable table && source.getMetatable(state) == null) {
-			table.move(from, to, count);
-			return table;
+		// If we're moving between tables with no metamethods, go through the tables directly - should be more optimal.
+		if (source instanceof LuaTable sourceTbl && source.getMetatable(state) == null
+			&& dest instanceof LuaTable destTbl && dest.getMetatable(state) == null) {
+			sourceTbl.move(from, destTbl, to, count);
+			return destTbl;
 		}
 
 		// Otherwise do the "proper implementation.
@@ -281,17 +351,361 @@ public final class TableLib {
 
 	// "sort" (table [, comp]) -> void
 	private static class Sort {
+		/**
+		 * Ranges smaller than this are sorted with an insertion sort.
+		 */
+		private static final int INSERTION_THRESHOLD = 12;
+
 		private static Varargs sort(LuaState state, DebugFrame di, Varargs args) throws LuaError, UnwindThrowable {
 			LuaValue table = checkTableLike(state, args, 1, TABLE_LEN | TABLE_READ | TABLE_WRITE);
 			return SuspendedAction.run(di, () -> {
 				int n = OperationHelper.intLength(state, table);
 
 				LuaFunction compare = args.arg(2).optFunction(null);
-				if (n > 1) heapSort(state, table, n, compare);
+				if (n > 1) {
+					if (table instanceof LuaTable tbl && tbl.getMetatable(state) == null) {
+						arraySort(state, tbl, n, compare);
+					} else {
+						heapSort(state, table, n, compare);
+					}
+				}
 				return NONE;
 			});
 		}
 
+		/**
+		 * Sort a table with no metatable. We copy the table's contents into an array, sort that with an introsort, and
+		 * then write the values back to the table.
+		 * <p>
+		 * As the comparison function only sees the copy, any writes it makes to {@code table[1..count]} are
+		 * overwritten once sorting has finished. Lua leaves the result of modifying a table while it is being sorted
+		 * unspecified, so we do not attempt to detect this.
+		 *
+		 * @param state   The current Lua state.
+		 * @param table   The table to sort.
+		 * @param count   The number of items to sort.
+		 * @param compare The comparison function, or {@code null} to use the {@code <} operator.
+		 * @throws LuaError        If comparing two values failed.
+		 * @throws UnwindThrowable If the comparison function yielded.
+		 */
+		@AutoUnwind
+		private static void arraySort(LuaState state, LuaTable table, int count, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			LuaValue[] values = new LuaValue[count];
+			for (int i = 0; i < count; i++) values[i] = table.rawget(i + 1);
+
+			int depth = maxDepth(count);
+			PrimitiveSort primitive = compare == null ? PrimitiveSort.of(values) : null;
+			if (primitive != null) {
+				primitive.introSort(0, count - 1, depth);
+			} else {
+				introSort(state, values, 0, count - 1, depth, compare);
+			}
+
+			for (int i = 0; i < count; i++) table.rawset(i + 1, values[i]);
+		}
+
+		/**
+		 * The number of times {@link #introSort(LuaState, LuaValue[], int, int, int, LuaFunction)} may partition a
+		 * range before falling back to a heap sort.
+		 *
+		 * @param count The number of items being sorted.
+		 * @return The maximum recursion depth.
+		 */
+		private static int maxDepth(int count) {
+			return 2 * (32 - Integer.numberOfLeadingZeros(count));
+		}
+
+		/**
+		 * Determine whether the range {@code lo..hi} is small enough to be sorted with an insertion sort.
+		 */
+		private static boolean isSmall(int lo, int hi) {
+			return hi - lo < INSERTION_THRESHOLD;
+		}
+
+		private static LuaError invalidOrder() {
+			return new LuaError("invalid order function for sorting");
+		}
+
+		@AutoUnwind
+		private static void introSort(LuaState state, LuaValue[] values, int lo, int hi, int depth, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			while (!isSmall(lo, hi)) {
+				// If we've recursed too far, then we're likely hitting quicksort's worst case. Fall back to a heap sort.
+				if (depth == 0) {
+					heapSort(state, values, lo, hi, compare);
+					return;
+				}
+				depth--;
+
+				int pivot = partition(state, values, lo, hi, compare);
+
+				// Recurse into the smaller half, and loop on the larger one, to bound the depth of the Java stack.
+				if (pivot - lo < hi - pivot) {
+					introSort(state, values, lo, pivot - 1, depth, compare);
+					lo = pivot + 1;
+				} else {
+					introSort(state, values, pivot + 1, hi, depth, compare);
+					hi = pivot - 1;
+				}
+			}
+
+			insertionSort(state, values, lo, hi, compare);
+		}
+
+		/**
+		 * Partition {@code values[lo..hi]} around a median-of-three pivot.
+		 *
+		 * @return The final position of the pivot.
+		 */
+		@AutoUnwind
+		private static int partition(LuaState state, LuaValue[] values, int lo, int hi, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			int mid = (lo + hi) >>> 1;
+
+			// Sort values[lo], values[mid] and values[hi].
+			if (compare(state, compare, values[mid], values[lo])) swap(values, mid, lo);
+			if (compare(state, compare, values[hi], values[mid])) {
+				swap(values, hi, mid);
+				if (compare(state, compare, values[mid], values[lo])) swap(values, mid, lo);
+			}
+
+			// values[lo] and values[hi] now act as sentinels, so we only need to partition values[lo+1..hi-1].
+			LuaValue pivot = values[mid];
+			swap(values, mid, hi - 1);
+
+			int i = lo, j = hi - 1;
+			while (true) {
+				while (true) {
+					i++;
+					if (!compare(state, compare, values[i], pivot)) break;
+					if (i == hi - 1) throw invalidOrder();
+				}
+
+				while (true) {
+					j--;
+					if (!compare(state, compare, pivot, values[j])) break;
+					if (j < i) throw invalidOrder();
+				}
+
+				if (j < i) break;
+				swap(values, i, j);
+			}
+
+			swap(values, hi - 1, i);
+			return i;
+		}
+
+		@AutoUnwind
+		private static void insertionSort(LuaState state, LuaValue[] values, int lo, int hi, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			for (int i = lo + 1; i <= hi; i++) {
+				LuaValue value = values[i];
+				int j = i - 1;
+				while (j >= lo && compare(state, compare, value, values[j])) {
+					values[j + 1] = values[j];
+					j--;
+				}
+				values[j + 1] = value;
+			}
+		}
+
+		@AutoUnwind
+		private static void heapSort(LuaState state, LuaValue[] values, int lo, int hi, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			int count = hi - lo + 1;
+			for (int start = count / 2 - 1; start >= 0; start--) {
+				siftDown(state, values, lo, start, count - 1, compare);
+			}
+
+			for (int end = count - 1; end > 0; ) {
+				swap(values, lo, lo + end);
+				siftDown(state, values, lo, 0, --end, compare);
+			}
+		}
+
+		@AutoUnwind
+		private static void siftDown(LuaState state, LuaValue[] values, int offset, int start, int end, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
+			LuaValue rootValue = values[offset + start];
+
+			for (int root = start; root * 2 + 1 <= end; ) {
+				int child = root * 2 + 1;
+				LuaValue childValue = values[offset + child];
+
+				if (child < end) {
+					LuaValue other = values[offset + child + 1];
+					if (compare(state, compare, childValue, other)) {
+						child++;
+						childValue = other;
+					}
+				}
+
+				if (compare(state, compare, rootValue, childValue)) {
+					values[offset + root] = childValue;
+					values[offset + child] = rootValue;
+
+					root = child; // Don't need to update rootValue, as we've now swapped!
+				} else {
+					return;
+				}
+			}
+		}
+
+		private static void swap(LuaValue[] values, int i, int j) {
+			LuaValue tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+
+		/**
+		 * A version of {@link #introSort(LuaState, LuaValue[], int, int, int, LuaFunction)} for arrays where every
+		 * element is a number, or every element is a string. These can be compared directly, without going through
+		 * {@link OperationHelper#lt(LuaState, LuaValue, LuaValue)}, and will never yield.
+		 * <p>
+		 * This performs exactly the same comparisons and swaps as the general sort, just addressing elements by index
+		 * rather than by value, and so produces the same order.
+		 */
+		private abstract static class PrimitiveSort {
+			final LuaValue[] values;
+
+			PrimitiveSort(LuaValue[] values) {
+				this.values = values;
+			}
+
+			static @Nullable PrimitiveSort of(LuaValue[] values) {
+				int type = values[0].type();
+				for (LuaValue value : values) {
+					if (value.type() != type) return null;
+				}
+
+				return switch (type) {
+					case TNUMBER -> new NumberSort(values);
+					case TSTRING -> new StringSort(values);
+					default -> null;
+				};
+			}
+
+			/**
+			 * Determine if the value at index {@code i} is less than the value at index {@code j}.
+			 */
+			abstract boolean lt(int i, int j);
+
+			void swap(int i, int j) {
+				Sort.swap(values, i, j);
+			}
+
+			final void introSort(int lo, int hi, int depth) throws LuaError {
+				while (!isSmall(lo, hi)) {
+					if (depth == 0) {
+						heapSort(lo, hi);
+						return;
+					}
+					depth--;
+
+					int pivot = partition(lo, hi);
+					if (pivot - lo < hi - pivot) {
+						introSort(lo, pivot - 1, depth);
+						lo = pivot + 1;
+					} else {
+						introSort(pivot + 1, hi, depth);
+						hi = pivot - 1;
+					}
+				}
+
+				insertionSort(lo, hi);
+			}
+
+			private int partition(int lo, int hi) throws LuaError {
+				int mid = (lo + hi) >>> 1;
+
+				if (lt(mid, lo)) swap(mid, lo);
+				if (lt(hi, mid)) {
+					swap(hi, mid);
+					if (lt(mid, lo)) swap(mid, lo);
+				}
+
+				// The pivot lives in values[hi - 1] for the duration of the partition.
+				int pivot = hi - 1;
+				swap(mid, pivot);
+
+				int i = lo, j = hi - 1;
+				while (true) {
+					while (lt(++i, pivot)) {
+						if (i == hi - 1) throw invalidOrder();
+					}
+
+					while (lt(pivot, --j)) {
+						if (j < i) throw invalidOrder();
+					}
+
+					if (j < i) break;
+					swap(i, j);
+				}
+
+				swap(pivot, i);
+				return i;
+			}
+
+			private void insertionSort(int lo, int hi) {
+				for (int i = lo + 1; i <= hi; i++) {
+					for (int j = i - 1; j >= lo && lt(j + 1, j); j--) swap(j + 1, j);
+				}
+			}
+
+			private void heapSort(int lo, int hi) {
+				int count = hi - lo + 1;
+				for (int start = count / 2 - 1; start >= 0; start--) siftDown(lo, start, count - 1);
+
+				for (int end = count - 1; end > 0; ) {
+					swap(lo, lo + end);
+					siftDown(lo, 0, --end);
+				}
+			}
+
+			private void siftDown(int offset, int start, int end) {
+				for (int root = start; root * 2 + 1 <= end; ) {
+					int child = root * 2 + 1;
+					if (child < end && lt(offset + child, offset + child + 1)) child++;
+
+					if (lt(offset + root, offset + child)) {
+						swap(offset + root, offset + child);
+						root = child;
+					} else {
+						return;
+					}
+				}
+			}
+		}
+
+		private static final class NumberSort extends PrimitiveSort {
+			private final double[] keys;
+
+			NumberSort(LuaValue[] values) {
+				super(values);
+				keys = new double[values.length];
+				for (int i = 0; i < values.length; i++) keys[i] = values[i].toDouble();
+			}
+
+			@Override
+			boolean lt(int i, int j) {
+				return keys[i] < keys[j];
+			}
+
+			@Override
+			void swap(int i, int j) {
+				super.swap(i, j);
+				double tmp = keys[i];
+				keys[i] = keys[j];
+				keys[j] = tmp;
+			}
+		}
+
+		private static final class StringSort extends PrimitiveSort {
+			StringSort(LuaValue[] values) {
+				super(values);
+			}
+
+			@Override
+			boolean lt(int i, int j) {
+				return ((LuaString) values[i]).compareTo((LuaString) values[j]) < 0;
+			}
+		}
+
 		@AutoUnwind
 		private static void heapSort(LuaState state, LuaValue table, int count, @Nullable LuaFunction compare) throws LuaError, UnwindThrowable {
 			for (int start = count / 2 - 1; start >= 0; start--) {
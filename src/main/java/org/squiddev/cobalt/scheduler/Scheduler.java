@@ -0,0 +1,548 @@
+package org.squiddev.cobalt.scheduler;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.squiddev.cobalt.LuaError;
+import org.squiddev.cobalt.LuaState;
+import org.squiddev.cobalt.LuaThread;
+import org.squiddev.cobalt.interrupt.InterruptAction;
+import org.squiddev.cobalt.interrupt.InterruptHandler;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs many {@link LuaState}s across a fixed pool of worker threads.
+ * <p>
+ * Each state is {@linkplain #register(LuaState, Task) registered} with a {@link Task}, which is run whenever the
+ * state is {@linkplain Entry#wake() woken}. A state only ever runs on one worker at a time, and is queued again (behind
+ * any other waiting states) if its task asks to be run again.
+ * <p>
+ * States are time sliced: once a task has been running for longer than its {@linkplain Entry#setTimeSlice(Duration)
+ * time slice}, its state is {@linkplain InterruptAction#SUSPEND suspended}, so that
+ * {@link LuaThread#run(LuaThread, org.squiddev.cobalt.Varargs)} returns and the task can ask to be run again. This
+ * relies on the state's own {@linkplain LuaState.Builder#timeSlice(Duration) time slicing} to call its interrupt
+ * handler, and so states should be built with {@link #interruptHandler()} and a time slice no longer than the
+ * scheduler's.
+ * <p>
+ * States may also be given a {@linkplain Entry#setBudget(Duration) budget}, limiting the total time they may run
+ * for.
+ * <p>
+ * Each worker has its own queue of states. Workers take states from the front of their own queue, and steal from the
+ * back of other workers' queues when theirs is empty. Idle workers are parked until more work is queued.
+ *
+ * <pre>{@code
+ * Scheduler scheduler = Scheduler.builder().workers(4).timeSlice(Duration.ofMillis(50)).build();
+ * LuaState state = LuaState.builder()
+ *     .interruptHandler(Scheduler.interruptHandler())
+ *     .timeSlice(Duration.ofMillis(5))
+ *     .build();
+ * LuaThread thread = ...;
+ * scheduler.register(state, s -> {
+ *     LuaThread.run(thread, Constants.NONE);
+ *     return thread.isAlive();
+ * }).wake();
+ * }</pre>
+ */
+public final class Scheduler implements AutoCloseable {
+	private static final int IDLE = 0;
+	private static final int QUEUED = 1;
+	private static final int RUNNING = 2;
+	private static final int RUNNING_WOKEN = 3;
+	private static final int EXHAUSTED = 4;
+
+	/**
+	 * The entry currently being run on this thread.
+	 */
+	private static final ThreadLocal<@Nullable Entry> current = new ThreadLocal<>();
+
+	private static final InterruptHandler INTERRUPT_HANDLER = () -> {
+		Entry entry = current.get();
+		return entry == null || entry.shouldSuspend() ? InterruptAction.SUSPEND : InterruptAction.CONTINUE;
+	};
+
+	private final Worker[] workers;
+	private final long timeSlice;
+	private final AtomicInteger nextWorker = new AtomicInteger();
+	private volatile boolean running = true;
+
+	private final LongAdder slices = new LongAdder();
+	private final LongAdder queueLatency = new LongAdder();
+
+	private Scheduler(Builder builder) {
+		timeSlice = builder.timeSlice;
+
+		workers = new Worker[builder.workers];
+		for (int i = 0; i < workers.length; i++) workers[i] = new Worker(i, builder.threadFactory);
+
+		for (Worker worker : workers) worker.thread.start();
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * An {@link InterruptHandler} which {@linkplain InterruptAction#SUSPEND suspends} the VM when its scheduler time
+	 * slice has expired, or the scheduler is closed. States which are not being run by a scheduler are always
+	 * suspended.
+	 *
+	 * @return The interrupt handler.
+	 */
+	public static InterruptHandler interruptHandler() {
+		return INTERRUPT_HANDLER;
+	}
+
+	/**
+	 * Register a state with this scheduler. The state will not be run until it is {@linkplain Entry#wake() woken}.
+	 *
+	 * @param state The state to register. This must have an {@link InterruptHandler}.
+	 * @param task  The task to run the state.
+	 * @return The scheduler's entry for this state.
+	 */
+	public Entry register(LuaState state, Task task) {
+		Objects.requireNonNull(state, "state cannot be null");
+		Objects.requireNonNull(task, "task cannot be null");
+		return new Entry(state, task, timeSlice);
+	}
+
+	/**
+	 * Get the total number of time slices run by this scheduler.
+	 *
+	 * @return The number of slices.
+	 */
+	public long getSliceCount() {
+		return slices.sum();
+	}
+
+	/**
+	 * Get the total time states have spent waiting in the queue before being run, in nanoseconds.
+	 *
+	 * @return The total queue latency.
+	 * @see #getSliceCount()
+	 */
+	public long getTotalQueueLatency() {
+		return queueLatency.sum();
+	}
+
+	/**
+	 * Stop this scheduler. Any running tasks are interrupted, and queued tasks are discarded. This waits for all
+	 * workers to finish their current task.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		for (Worker worker : workers) {
+			Entry entry = worker.current;
+			if (entry != null) entry.interrupt();
+			LockSupport.unpark(worker.thread);
+		}
+
+		for (Worker worker : workers) {
+			// A task may close the scheduler it is running on, so don't wait for ourselves.
+			if (worker.thread == Thread.currentThread()) continue;
+
+			try {
+				worker.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void enqueue(Entry entry) {
+		entry.queuedAt = System.nanoTime();
+
+		// Prefer the current worker's queue, to keep the state on the same thread, and otherwise spread states
+		// between workers.
+		Worker worker = null;
+		for (Worker w : workers) {
+			if (w.thread == Thread.currentThread()) {
+				worker = w;
+				break;
+			}
+		}
+		if (worker == null) worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+
+		worker.queue.addLast(entry);
+		LockSupport.unpark(worker.thread);
+
+		// Wake up an idle worker, so that it can steal this state if needed.
+		wakeIdle(worker);
+	}
+
+	private void wakeIdle(Worker except) {
+		for (Worker w : workers) {
+			if (w != except && w.idle) {
+				LockSupport.unpark(w.thread);
+				break;
+			}
+		}
+	}
+
+	private @Nullable Entry take(Worker worker) {
+		Entry entry = worker.queue.pollFirst();
+		if (entry != null) return entry;
+
+		for (int i = 1; i < workers.length; i++) {
+			entry = workers[(worker.index + i) % workers.length].queue.pollLast();
+			if (entry != null) return entry;
+		}
+
+		return null;
+	}
+
+	private boolean hasWork() {
+		for (Worker worker : workers) {
+			if (!worker.queue.isEmpty()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * A task which runs a {@link LuaState} for a single time slice.
+	 */
+	@FunctionalInterface
+	public interface Task {
+		/**
+		 * Run this state until it suspends or has no more work to do.
+		 *
+		 * @param state The state to run.
+		 * @return Whether this task should be run again. If {@code false}, the task will not be run until the state is
+		 * next {@linkplain Entry#wake() woken}.
+		 * @throws LuaError If running the state failed. This is reported to the state's
+		 *                  {@linkplain LuaState.ErrorReporter error reporter}, and the task is not run again until it is
+		 *                  next woken.
+		 */
+		boolean run(LuaState state) throws LuaError;
+	}
+
+	/**
+	 * A state registered with a {@link Scheduler}.
+	 */
+	public final class Entry {
+		private final LuaState state;
+		private final Task task;
+		private final AtomicInteger status = new AtomicInteger(IDLE);
+
+		private volatile long timeSlice;
+
+		/**
+		 * The remaining time this state may run for, or {@link Long#MAX_VALUE} if unlimited.
+		 */
+		private final AtomicLong budget = new AtomicLong(Long.MAX_VALUE);
+
+		/**
+		 * The number of the current (or most recent) slice. This is incremented at the start of each slice, so that
+		 * interrupts meant for an earlier slice can be ignored.
+		 */
+		private volatile long generation;
+
+		/**
+		 * The {@link #generation} of the slice which should be interrupted, or {@code -1}.
+		 */
+		private volatile long interruptGeneration = -1;
+
+		/**
+		 * When the current slice started, and how long it may run for. These are only accessed from the worker
+		 * running this entry.
+		 */
+		private long startedAt, sliceLength;
+
+		private long queuedAt;
+
+		private volatile long slices;
+		private volatile long totalQueueLatency;
+		private volatile long maxQueueLatency;
+		private volatile long totalRunTime;
+
+		private Entry(LuaState state, Task task, long timeSlice) {
+			this.state = state;
+			this.task = task;
+			this.timeSlice = timeSlice;
+		}
+
+		/**
+		 * Queue this state to be run. This does nothing if the state is already queued, and if the state is currently
+		 * running, it will be queued again once it has finished.
+		 */
+		public void wake() {
+			while (true) {
+				switch (status.get()) {
+					case IDLE -> {
+						if (budget.get() <= 0) {
+							if (status.compareAndSet(IDLE, EXHAUSTED)) {
+								queueIfBudget();
+								return;
+							}
+						} else if (status.compareAndSet(IDLE, QUEUED)) {
+							enqueue(this);
+							return;
+						}
+					}
+					case RUNNING -> {
+						if (status.compareAndSet(RUNNING, RUNNING_WOKEN)) return;
+					}
+					default -> {
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Set how long this state may run before it is suspended. This defaults to the scheduler's
+		 * {@linkplain Builder#timeSlice(Duration) time slice}.
+		 *
+		 * @param timeSlice The new time slice.
+		 */
+		public void setTimeSlice(Duration timeSlice) {
+			this.timeSlice = checkTimeSlice(timeSlice);
+		}
+
+		/**
+		 * Set the total time this state may run for. Once the budget is exhausted, the state is suspended at the end
+		 * of its time slice, and will not be run again until it is given more budget.
+		 * <p>
+		 * The budget is reduced by the time spent in each slice, so this may be called periodically to let a state
+		 * run for a certain amount of time in each period.
+		 *
+		 * @param budget The new budget, or {@code null} to allow this state to run for an unlimited amount of time.
+		 */
+		public void setBudget(@Nullable Duration budget) {
+			if (budget != null && budget.isNegative()) throw new IllegalArgumentException("budget cannot be negative");
+			this.budget.set(budget == null ? Long.MAX_VALUE : budget.toNanos());
+			queueIfBudget();
+		}
+
+		/**
+		 * Queue this state if it was waiting for more budget, and now has some. This is called after the budget is
+		 * changed, and after moving to {@link #EXHAUSTED} (in case the budget was changed since we last checked it).
+		 */
+		private void queueIfBudget() {
+			if (budget.get() > 0 && status.compareAndSet(EXHAUSTED, QUEUED)) enqueue(this);
+		}
+
+		/**
+		 * Get the remaining time this state may run for.
+		 *
+		 * @return The remaining budget, or {@code null} if this state's run time is unlimited.
+		 * @see #setBudget(Duration)
+		 */
+		public @Nullable Duration getBudget() {
+			long budget = this.budget.get();
+			return budget == Long.MAX_VALUE ? null : Duration.ofNanos(Math.max(0, budget));
+		}
+
+		public LuaState getState() {
+			return state;
+		}
+
+		/**
+		 * Get the number of time slices this state has run for.
+		 *
+		 * @return The number of slices.
+		 */
+		public long getSliceCount() {
+			return slices;
+		}
+
+		/**
+		 * Get the total time this state has spent waiting in the queue, in nanoseconds.
+		 *
+		 * @return The total queue latency.
+		 */
+		public long getTotalQueueLatency() {
+			return totalQueueLatency;
+		}
+
+		/**
+		 * Get the longest time this state has spent waiting in the queue, in nanoseconds.
+		 *
+		 * @return The maximum queue latency.
+		 */
+		public long getMaxQueueLatency() {
+			return maxQueueLatency;
+		}
+
+		/**
+		 * Get the total time this state has spent running, in nanoseconds.
+		 *
+		 * @return The total run time.
+		 */
+		public long getTotalRunTime() {
+			return totalRunTime;
+		}
+
+		private void interrupt() {
+			interruptGeneration = generation;
+			try {
+				state.interrupt();
+			} catch (IllegalStateException e) {
+				// The state has no interrupt handler, and so cannot be time sliced.
+				state.reportInternalError(e, () -> "Cannot interrupt scheduled state");
+			}
+		}
+
+		/**
+		 * Determine whether the current slice should be suspended. This is called from the worker running this entry.
+		 *
+		 * @return Whether this state should be suspended.
+		 */
+		private boolean shouldSuspend() {
+			return !running || interruptGeneration == generation || System.nanoTime() - startedAt >= sliceLength;
+		}
+
+		private void run(Worker worker) {
+			long start = System.nanoTime();
+			long latency = start - queuedAt;
+
+			// Only one worker may run an entry at once, so these do not need to be atomic.
+			slices++;
+			totalQueueLatency += latency;
+			if (latency > maxQueueLatency) maxQueueLatency = latency;
+			Scheduler.this.slices.increment();
+			queueLatency.add(latency);
+
+			status.set(RUNNING);
+			generation++;
+			startedAt = start;
+			sliceLength = Math.min(timeSlice, budget.get());
+			worker.current = this;
+			current.set(this);
+
+			boolean again = false;
+			try {
+				again = task.run(state);
+			} catch (Throwable e) {
+				state.reportInternalError(e, () -> "Error running scheduled state");
+			} finally {
+				current.remove();
+				worker.current = null;
+
+				long elapsed = System.nanoTime() - start;
+				totalRunTime += elapsed;
+				budget.getAndUpdate(x -> x == Long.MAX_VALUE ? x : x - elapsed);
+
+				finish(again);
+			}
+		}
+
+		private void finish(boolean again) {
+			if (!again && status.compareAndSet(RUNNING, IDLE)) return;
+
+			if (budget.get() <= 0) {
+				status.set(EXHAUSTED);
+				queueIfBudget();
+			} else {
+				status.set(QUEUED);
+				enqueue(this);
+			}
+		}
+	}
+
+	private final class Worker {
+		final int index;
+		final ConcurrentLinkedDeque<Entry> queue = new ConcurrentLinkedDeque<>();
+		final Thread thread;
+		volatile @Nullable Entry current;
+		volatile boolean idle;
+
+		Worker(int index, ThreadFactory threadFactory) {
+			this.index = index;
+			thread = threadFactory.newThread(this::run);
+		}
+
+		void run() {
+			while (running) {
+				Entry entry = take(this);
+				if (entry != null) {
+					// If there is more work waiting, make sure another worker is awake to take it.
+					if (hasWork()) wakeIdle(this);
+					entry.run(this);
+					continue;
+				}
+
+				// Mark ourselves as idle before checking for work one last time. Anything queued after this check will
+				// see we are idle and unpark us.
+				idle = true;
+				if (running && !hasWork()) LockSupport.park(this);
+				idle = false;
+			}
+		}
+	}
+
+	private static long checkTimeSlice(Duration timeSlice) {
+		Objects.requireNonNull(timeSlice, "timeSlice cannot be null");
+		if (timeSlice.isNegative() || timeSlice.isZero()) throw new IllegalArgumentException("timeSlice must be positive");
+		return timeSlice.toNanos();
+	}
+
+	/**
+	 * A mutable builder for {@link Scheduler}s.
+	 */
+	public static final class Builder {
+		private int workers = Runtime.getRuntime().availableProcessors();
+		private long timeSlice = TimeUnit.MILLISECONDS.toNanos(50);
+		private ThreadFactory threadFactory = r -> {
+			Thread thread = new Thread(r, "Cobalt scheduler");
+			thread.setDaemon(true);
+			return thread;
+		};
+
+		private Builder() {
+		}
+
+		/**
+		 * Build a scheduler from this builder. This starts the scheduler's threads.
+		 *
+		 * @return The constructed scheduler.
+		 */
+		public Scheduler build() {
+			return new Scheduler(this);
+		}
+
+		/**
+		 * Set the number of worker threads. This defaults to the number of available processors.
+		 *
+		 * @param workers The number of workers.
+		 * @return This builder.
+		 */
+		public Builder workers(int workers) {
+			if (workers <= 0) throw new IllegalArgumentException("workers must be positive");
+			this.workers = workers;
+			return this;
+		}
+
+		/**
+		 * Set the default time slice for each state. This defaults to 50ms.
+		 *
+		 * @param timeSlice The time slice.
+		 * @return This builder.
+		 * @see Entry#setTimeSlice(Duration)
+		 */
+		public Builder timeSlice(Duration timeSlice) {
+			this.timeSlice = checkTimeSlice(timeSlice);
+			return this;
+		}
+
+		/**
+		 * Set the factory used to create the scheduler's threads. This may be used to run workers on virtual threads.
+		 *
+		 * @param threadFactory The thread factory.
+		 * @return This builder.
+		 */
+		public Builder threadFactory(ThreadFactory threadFactory) {
+			Objects.requireNonNull(threadFactory, "threadFactory cannot be null");
+			this.threadFactory = threadFactory;
+			return this;
+		}
+	}
+}
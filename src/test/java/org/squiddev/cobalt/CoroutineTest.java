@@ -24,23 +24,29 @@
  */
 package org.squiddev.cobalt;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedInvocationConstants;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.squiddev.cobalt.compiler.CompileException;
+import org.squiddev.cobalt.compiler.LoadState;
 import org.squiddev.cobalt.debug.DebugFrame;
 import org.squiddev.cobalt.debug.DebugHelpers;
+import org.squiddev.cobalt.debug.DebugState;
 import org.squiddev.cobalt.function.LuaFunction;
 import org.squiddev.cobalt.function.RegisteredFunction;
 import org.squiddev.cobalt.function.ResumableVarArgFunction;
 import org.squiddev.cobalt.interrupt.InterruptAction;
 import org.squiddev.cobalt.interrupt.InterruptHandler;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.fail;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Tests yielding in a whole load of places
@@ -90,6 +96,36 @@ public class CoroutineTest {
 		assertEquals("dead", helpers.state.getMainThread().getStatus().getDisplayName());
 	}
 
+	@Test
+	public void testFramesAreReused() throws IOException, CompileException, LuaError, InterruptedException {
+		helpers.setup();
+
+		List<DebugFrame> frames = new ArrayList<>();
+		RegisteredFunction.bind(helpers.globals, new RegisteredFunction[]{
+			RegisteredFunction.ofV("frame", (state, args) -> {
+				frames.add(DebugState.get(state).getFrame(1));
+				return Constants.NONE;
+			}),
+			RegisteredFunction.ofV("checkCleared", (state, args) -> {
+				DebugFrame frame = frames.get(frames.size() - 1);
+				assertNull(frame.func, "func");
+				assertNull(frame.closure, "closure");
+				assertNull(frame.stack, "stack");
+				assertNull(frame.varargs, "varargs");
+				return Constants.NONE;
+			}),
+		});
+
+		LuaThread.runMain(helpers.state, LoadState.load(helpers.state, new ByteArrayInputStream("""
+			coroutine.wrap(function(...) frame() end)(1, 2, 3)
+			checkCleared()
+			coroutine.wrap(function(...) frame() end)(4, 5, 6)
+			""".getBytes(StandardCharsets.UTF_8)), "=frames", helpers.globals));
+
+		assertEquals(2, frames.size());
+		assertSame(frames.get(0), frames.get(1), "Frame should be reused");
+	}
+
 	private static class Run extends ResumableVarArgFunction<LuaThread> {
 		@Override
 		protected Varargs invoke(LuaState state, DebugFrame di, Varargs args) throws LuaError, UnwindThrowable {
@@ -0,0 +1,152 @@
+package org.squiddev.cobalt;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.squiddev.cobalt.compiler.CompileException;
+import org.squiddev.cobalt.compiler.LoadState;
+import org.squiddev.cobalt.function.LuaFunction;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the location and traceback information attached to {@link LuaError}s.
+ * <p>
+ * These are also run with the {@code cobalt.noErrorStackTrace} property set (see the {@code testNoErrorStackTrace}
+ * task), which should only change whether Java stack traces are captured.
+ */
+public class LuaErrorTest {
+	private final ScriptHelper helpers = new ScriptHelper("/");
+
+	@BeforeEach
+	public void setup() throws LuaError {
+		helpers.setupQuiet();
+	}
+
+	private LuaFunction load(String contents) throws CompileException, LuaError {
+		return LoadState.load(helpers.state, new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)), "=error", helpers.globals);
+	}
+
+	private Varargs run(String contents) throws CompileException, LuaError {
+		return LuaThread.runMain(helpers.state, load(contents));
+	}
+
+	private LuaError runError(String contents) {
+		return assertThrows(LuaError.class, () -> run(contents));
+	}
+
+	@Test
+	public void testPcallErrorHasPosition() throws CompileException, LuaError {
+		Varargs result = run("""
+			return pcall(function()
+			  error("oh no")
+			end)
+			""");
+
+		assertEquals(Constants.FALSE, result.arg(1));
+		assertEquals("error:2: oh no", result.arg(2).toString());
+	}
+
+	@Test
+	public void testPcallRuntimeErrorHasPosition() throws CompileException, LuaError {
+		Varargs result = run("""
+			return pcall(function()
+			  local x
+			  return x.y
+			end)
+			""");
+
+		assertEquals(Constants.FALSE, result.arg(1));
+		assertEquals("error:3: attempt to index local 'x' (a nil value)", result.arg(2).toString());
+	}
+
+	@Test
+	public void testXpcallTraceback() throws CompileException, LuaError {
+		Varargs result = run("""
+			local function f() error("oh no") end
+			return xpcall(f, debug.traceback)
+			""");
+
+		assertEquals(Constants.FALSE, result.arg(1));
+		assertEquals("""
+			error:1: oh no
+			stack traceback:
+				[C]: in function 'error'
+				error:1: in function <error:1>
+				[C]: in function 'xpcall'
+				error:2: in main chunk""", result.arg(2).toString());
+	}
+
+	@Test
+	public void testUncaughtErrorHasTraceback() {
+		LuaError error = runError("""
+			local function f() error("oh no") end
+			f()
+			""");
+
+		assertEquals("error:1: oh no", error.getValue().toString());
+		assertEquals("""
+			stack traceback:
+				error:1: in local 'f'
+				error:2: in main chunk""", error.getTraceback());
+	}
+
+	@Test
+	public void testCoroutineErrorHasTraceback() {
+		LuaError error = runError("""
+			coroutine.wrap(function()
+			  error("oh no")
+			end)()
+			""");
+
+		assertEquals("error:2: oh no", error.getValue().toString());
+		assertEquals("""
+			stack traceback:
+				error:2: in function <error:1>""", error.getTraceback());
+	}
+
+	@Test
+	public void testDeepTraceback() {
+		// Build a chain of 25 distinct functions, so we can check which frames are either side of the gap.
+		StringBuilder program = new StringBuilder("local function f1() error('oh no') end\n");
+		for (int i = 2; i <= 25; i++) program.append("local function f").append(i).append("() f").append(i - 1).append("() end\n");
+		program.append("f25()\n");
+
+		LuaError error = runError(program.toString());
+
+		StringBuilder expected = new StringBuilder("stack traceback:");
+		for (int i = 1; i <= 10; i++) expected.append("\n\terror:").append(i).append(": in upvalue 'f").append(i).append("'");
+		expected.append("\n\t...");
+		for (int i = 16; i <= 24; i++) expected.append("\n\terror:").append(i).append(": in upvalue 'f").append(i).append("'");
+		expected.append("\n\terror:25: in local 'f25'");
+		expected.append("\n\terror:26: in main chunk");
+
+		assertEquals(expected.toString(), error.getTraceback());
+	}
+
+	@Test
+	public void testTracebackIsFormattedOnce() {
+		LuaError error = runError("""
+			local function f() error("oh no") end
+			f()
+			""");
+
+		String traceback = error.getTraceback();
+		assertNotNull(traceback);
+		assertEquals("error:1: oh no\n" + traceback, error.getMessage());
+		assertEquals("error:1: oh no\n" + traceback, error.getMessage());
+		assertSame(traceback, error.getTraceback(), "Traceback should be cached");
+	}
+
+	@Test
+	public void testJavaStackTraces() {
+		boolean stackTraces = !Boolean.getBoolean("cobalt.noErrorStackTrace");
+		assertEquals(stackTraces, new LuaError("oh no").getStackTrace().length > 0, "Lua errors");
+		assertEquals(stackTraces, runError("error('oh no')").getStackTrace().length > 0, "Errors from Lua code");
+
+		// Errors wrapping a Java exception always capture their stack trace.
+		assertNotEquals(0, new LuaError(new IllegalStateException()).getStackTrace().length, "Wrapped Java exceptions");
+	}
+}
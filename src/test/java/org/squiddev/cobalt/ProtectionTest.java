@@ -26,6 +26,7 @@ package org.squiddev.cobalt;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.params.ParameterizedInvocationConstants;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -35,10 +36,14 @@ import org.squiddev.cobalt.interrupt.InterruptAction;
 import org.squiddev.cobalt.interrupt.InterruptHandler;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 /**
  * Tests that long running programs are terminated correctly.
  */
@@ -79,4 +84,35 @@ public class ProtectionTest {
 	public void run(String name) throws IOException, CompileException, LuaError, InterruptedException {
 		LuaThread.runMain(helpers.state, helpers.loadScript(name));
 	}
+
+	@Timeout(3)
+	@ParameterizedTest(name = ParameterizedInvocationConstants.ARGUMENTS_WITH_NAMES_PLACEHOLDER)
+	@ValueSource(strings = {"string", "loop", "load"})
+	public void runWithTimeSlice(String name) throws IOException, CompileException, LuaError, InterruptedException {
+		ScriptHelper helpers = new ScriptHelper("/protection/");
+		helpers.setup(s -> s
+			.interruptHandler(() -> {
+				throw new LuaError("Timed out");
+			})
+			.timeSlice(Duration.ofMillis(200)));
+
+		LuaThread.runMain(helpers.state, helpers.loadScript(name));
+	}
+
+	@Test
+	public void testIsInterruptedDoesNotExpireTimeSlice() throws InterruptedException {
+		LuaState state = LuaState.builder()
+			.interruptHandler(() -> InterruptAction.CONTINUE)
+			.timeSlice(Duration.ofNanos(1))
+			.build();
+		state.startTimeSlice();
+		Thread.sleep(1);
+
+		for (int i = 0; i < 1024; i++) assertFalse(state.isInterrupted(), "isInterrupted should not check the time slice");
+
+		boolean polled = false;
+		for (int i = 0; i < 1024 && !polled; i++) polled = state.pollInterrupt();
+		assertTrue(polled, "Time slice should have expired");
+		assertTrue(state.isInterrupted(), "State should be interrupted");
+	}
 }
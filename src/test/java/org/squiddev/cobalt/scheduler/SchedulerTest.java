@@ -0,0 +1,197 @@
+package org.squiddev.cobalt.scheduler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.compiler.CompileException;
+import org.squiddev.cobalt.compiler.LoadState;
+import org.squiddev.cobalt.function.LuaFunction;
+import org.squiddev.cobalt.lib.CoreLibraries;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchedulerTest {
+	private static final String BUSY_LOOP = "local n = 0 while n < 5e6 do n = n + 1 end return n";
+
+	@Test
+	@Timeout(30)
+	public void testRunsStatesToCompletion() throws Exception {
+		int count = 8;
+		CountDownLatch done = new CountDownLatch(count);
+		List<Scheduler.Entry> entries = new ArrayList<>();
+		List<LuaValue> results = new ArrayList<>();
+
+		try (Scheduler scheduler = Scheduler.builder().workers(2).timeSlice(Duration.ofMillis(1)).build()) {
+			for (int i = 0; i < count; i++) {
+				LuaState state = createState();
+				LuaThread thread = new LuaThread(state, load(state, BUSY_LOOP));
+
+				int index = i;
+				results.add(Constants.NIL);
+				entries.add(scheduler.register(state, s -> {
+					Varargs result = LuaThread.run(thread, Constants.NONE);
+					if (thread.isAlive()) return true;
+
+					synchronized (results) {
+						results.set(index, result.first());
+					}
+					done.countDown();
+					return false;
+				}));
+			}
+
+			for (Scheduler.Entry entry : entries) entry.wake();
+			assertTrue(done.await(30, TimeUnit.SECONDS), "States did not finish");
+
+			assertTrue(scheduler.getSliceCount() > count, "States should have been time sliced");
+		}
+
+		for (LuaValue result : results) assertEquals(5e6, result.toDouble());
+		for (Scheduler.Entry entry : entries) assertTrue(entry.getSliceCount() >= 1);
+	}
+
+	@Test
+	@Timeout(30)
+	public void testWakeWhileRunningRunsAgain() throws Exception {
+		CountDownLatch done = new CountDownLatch(2);
+		try (Scheduler scheduler = Scheduler.builder().workers(1).build()) {
+			LuaState state = createState();
+
+			Scheduler.Entry[] entry = new Scheduler.Entry[1];
+			entry[0] = scheduler.register(state, s -> {
+				if (done.getCount() == 2) entry[0].wake();
+				done.countDown();
+				return false;
+			});
+			entry[0].wake();
+
+			assertTrue(done.await(30, TimeUnit.SECONDS), "State was not run again");
+		}
+	}
+
+	@Test
+	@Timeout(30)
+	public void testBudgetLimitsRunTime() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		try (Scheduler scheduler = Scheduler.builder().workers(1).timeSlice(Duration.ofMillis(1)).build()) {
+			LuaState state = createState();
+			LuaThread thread = new LuaThread(state, load(state, BUSY_LOOP));
+
+			Scheduler.Entry entry = scheduler.register(state, s -> {
+				LuaThread.run(thread, Constants.NONE);
+				if (thread.isAlive()) return true;
+
+				done.countDown();
+				return false;
+			});
+			entry.setBudget(Duration.ofMillis(2));
+			entry.wake();
+
+			// The state should run out of budget before finishing.
+			assertFalse(done.await(500, TimeUnit.MILLISECONDS), "State should have run out of budget");
+			assertEquals(Duration.ZERO, entry.getBudget());
+			long slices = entry.getSliceCount();
+			entry.wake();
+			Thread.sleep(50);
+			assertEquals(slices, entry.getSliceCount(), "State should not be run without budget");
+
+			// And then finish once it is given an unlimited budget.
+			entry.setBudget(null);
+			assertTrue(done.await(30, TimeUnit.SECONDS), "State did not finish");
+		}
+	}
+
+	@Test
+	@Timeout(30)
+	public void testErrorsDoNotStopWorker() throws Exception {
+		List<Throwable> errors = new ArrayList<>();
+		CountDownLatch reported = new CountDownLatch(1);
+		CountDownLatch ranAgain = new CountDownLatch(1);
+		AtomicInteger runs = new AtomicInteger();
+
+		try (Scheduler scheduler = Scheduler.builder().workers(1).build()) {
+			LuaState state = LuaState.builder()
+				.interruptHandler(Scheduler.interruptHandler())
+				.errorReporter((e, message) -> {
+					synchronized (errors) {
+						errors.add(e);
+					}
+					reported.countDown();
+				})
+				.build();
+
+			Scheduler.Entry entry = scheduler.register(state, s -> {
+				if (runs.getAndIncrement() == 0) throw new StackOverflowError();
+				ranAgain.countDown();
+				return false;
+			});
+
+			entry.wake();
+			assertTrue(reported.await(30, TimeUnit.SECONDS), "Error was not reported");
+
+			entry.wake();
+			assertTrue(ranAgain.await(30, TimeUnit.SECONDS), "State was not run again");
+		}
+
+		synchronized (errors) {
+			assertEquals(1, errors.size());
+			assertInstanceOf(StackOverflowError.class, errors.get(0));
+		}
+	}
+
+	@Test
+	@Timeout(30)
+	public void testCloseWaitsForWorkers() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		CountDownLatch started = new CountDownLatch(1);
+
+		Scheduler scheduler = Scheduler.builder()
+			.workers(2)
+			.threadFactory(r -> {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				synchronized (threads) {
+					threads.add(thread);
+				}
+				return thread;
+			})
+			.build();
+
+		LuaState state = createState();
+		LuaThread thread = new LuaThread(state, load(state, "while true do end"));
+		scheduler.register(state, s -> {
+			started.countDown();
+			LuaThread.run(thread, Constants.NONE);
+			return true;
+		}).wake();
+
+		assertTrue(started.await(30, TimeUnit.SECONDS), "State was not run");
+		scheduler.close();
+
+		synchronized (threads) {
+			assertEquals(2, threads.size());
+			for (Thread worker : threads) assertFalse(worker.isAlive(), "Worker should have stopped");
+		}
+	}
+
+	private static LuaState createState() {
+		return LuaState.builder()
+			.interruptHandler(Scheduler.interruptHandler())
+			.timeSlice(Duration.ofMillis(1))
+			.build();
+	}
+
+	private static LuaFunction load(LuaState state, String code) throws CompileException, LuaError {
+		CoreLibraries.standardGlobals(state);
+		return LoadState.load(state, new ByteArrayInputStream(code.getBytes(StandardCharsets.UTF_8)), "=test", state.globals());
+	}
+}
@@ -16,31 +16,41 @@ import static org.squiddev.cobalt.Constants.NIL;
  */
 public final class TableOperations {
 	private static final Field nodes;
+	private static final Field values;
 	private static final Field array;
 	private static final Field lastFree;
+	private static final Field borderHint;
 	private static final Method trySet;
 
 	static {
-		Field nodesField, arrayField, lastFreeField;
+		Field nodesField, valuesField, arrayField, lastFreeField, borderHintField;
 		Method trySetMethod;
 		try {
 			nodesField = LuaTable.class.getDeclaredField("keys");
 			nodesField.setAccessible(true);
 
+			valuesField = LuaTable.class.getDeclaredField("values");
+			valuesField.setAccessible(true);
+
 			arrayField = LuaTable.class.getDeclaredField("array");
 			arrayField.setAccessible(true);
 
 			lastFreeField = LuaTable.class.getDeclaredField("lastFree");
 			lastFreeField.setAccessible(true);
 
+			borderHintField = LuaTable.class.getDeclaredField("borderHint");
+			borderHintField.setAccessible(true);
+
 			trySetMethod = LuaTable.class.getDeclaredMethod("trySet", LuaValue.class, LuaValue.class);
 			trySetMethod.setAccessible(true);
 		} catch (ReflectiveOperationException e) {
 			throw new RuntimeException(e);
 		}
 		nodes = nodesField;
+		values = valuesField;
 		array = arrayField;
 		lastFree = lastFreeField;
+		borderHint = borderHintField;
 		trySet = trySetMethod;
 	}
 
@@ -110,6 +120,38 @@ public final class TableOperations {
 		}
 	}
 
+	/**
+	 * Count the number of slots in the table's array and hash parts which have not been cleared. Unlike
+	 * {@link LuaTable#size()}, this includes weak references which have been collected but not yet removed.
+	 *
+	 * @param table The current table.
+	 * @return The number of occupied slots.
+	 */
+	public static int getOccupiedSlots(LuaTable table) {
+		try {
+			int count = 0;
+			for (Object value : (Object[]) array.get(table)) if (value != NIL) count++;
+			for (Object value : (Object[]) values.get(table)) if (value != NIL) count++;
+			return count;
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the cached length of the table.
+	 *
+	 * @param table The current table.
+	 * @return The table's border hint, or {@code -1} if its length is not known.
+	 */
+	public static int getBorderHint(LuaTable table) {
+		try {
+			return (int) borderHint.get(table);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Set a value on a table, with the same behaviour as {@link OperationHelper#setTable(LuaState, LuaValue, LuaValue, LuaValue)}.
 	 *
@@ -26,9 +26,16 @@ package org.squiddev.cobalt.table;
 
 import org.junit.jupiter.api.Test;
 import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.compiler.LoadState;
 import org.squiddev.cobalt.function.LibFunction;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
@@ -36,7 +43,9 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.squiddev.cobalt.Matchers.between;
 import static org.squiddev.cobalt.ValueFactory.valueOf;
 import static org.squiddev.cobalt.table.TableOperations.getArrayLength;
+import static org.squiddev.cobalt.table.TableOperations.getBorderHint;
 import static org.squiddev.cobalt.table.TableOperations.getHashLength;
+import static org.squiddev.cobalt.table.TableOperations.getOccupiedSlots;
 
 public class TableTest {
 	private int keyCount(LuaTable t) throws LuaError {
@@ -299,4 +308,298 @@ public class TableTest {
 		TableOperations.setValue(t, CachedMetamethod.INDEX.getKey(), f);
 		assertEquals(f, t.rawget(CachedMetamethod.INDEX));
 	}
+
+	@Test
+	public void testFreezePreservesContents() throws LuaError {
+		LuaTable t = new LuaTable();
+		for (int i = 1; i <= 100; i++) {
+			t.rawset(i, valueOf(i));
+			t.rawset("key-" + i, valueOf(i));
+		}
+		t.rawset(1000, valueOf(1000));
+		t.freeze();
+
+		assertTrue(t.isFrozen());
+		assertEquals(100, t.length());
+		assertEquals(201, keyCount(t));
+		for (int i = 1; i <= 100; i++) {
+			assertEquals(valueOf(i), t.rawget(i));
+			assertEquals(valueOf(i), t.rawget("key-" + i));
+		}
+		assertEquals(valueOf(1000), t.rawget(1000));
+	}
+
+	@Test
+	public void testFrozenTableRejectsWrites() throws LuaError {
+		LuaState state = new LuaState();
+		LuaTable t = ValueFactory.listOf(valueOf(1), valueOf(2)).freeze();
+
+		assertThrows(IllegalStateException.class, () -> t.rawset(1, Constants.NIL));
+		assertThrows(IllegalStateException.class, () -> t.rawset("foo", Constants.NIL));
+		assertThrows(IllegalStateException.class, () -> t.setMetatable(state, new LuaTable()));
+		assertThrows(IllegalStateException.class, () -> t.rawset(valueOf("foo"), Constants.TRUE));
+		assertThrows(IllegalStateException.class, () -> t.rawsetAll(new LuaValue[]{valueOf("foo")}, new LuaValue[]{Constants.TRUE}));
+		assertThrows(LuaError.class, t::checkWritable);
+		assertThrows(LuaError.class, () -> OperationHelper.setTable(state, t, 1, Constants.TRUE));
+		assertThrows(LuaError.class, () -> OperationHelper.setTable(state, t, valueOf("foo"), Constants.TRUE));
+
+		assertEquals(valueOf(1), t.rawget(1));
+		assertEquals(Constants.NIL, t.rawget("foo"));
+	}
+
+	@Test
+	public void testFrozenTableCanBeMoveSource() throws Exception {
+		ScriptHelper helpers = new ScriptHelper("/");
+		helpers.setupQuiet();
+		helpers.globals.rawset("frozen", ValueFactory.listOf(valueOf(1), valueOf(2), valueOf(3)).freeze());
+
+		Varargs result = LuaThread.runMain(helpers.state, LoadState.load(helpers.state, new ByteArrayInputStream("""
+			local copy = table.move(frozen, 1, 3, 1, {})
+			local ok, err = pcall(table.move, { 4 }, 1, 1, 1, frozen)
+			return copy[1], copy[2], copy[3], ok, err
+			""".getBytes(StandardCharsets.UTF_8)), "=move", helpers.globals));
+
+		assertEquals(valueOf(1), result.arg(1));
+		assertEquals(valueOf(2), result.arg(2));
+		assertEquals(valueOf(3), result.arg(3));
+		assertEquals(Constants.FALSE, result.arg(4));
+		assertEquals("move:2: attempt to modify a frozen table", result.arg(5).toString());
+		assertEquals(valueOf(1), ((LuaTable) helpers.globals.rawget("frozen")).rawget(1));
+	}
+
+	@Test
+	public void testWeakValuesAreRemoved() throws LuaError {
+		LuaTable t = new LuaTable();
+		t.setMetatable(null, ValueFactory.tableOf(Constants.MODE, valueOf("v")));
+
+		LuaTable kept = new LuaTable();
+		Object keptInstance = new Object();
+		t.rawset(1, kept);
+		for (int i = 2; i <= 32; i++) t.rawset(i, new LuaTable());
+		t.rawset("kept", ValueFactory.userdataOf(keptInstance));
+		for (int i = 0; i < 32; i++) t.rawset("key" + i, ValueFactory.userdataOf(new Object()));
+
+		collect(t, 2);
+		assertEquals(2, t.size());
+		assertEquals(2, getOccupiedSlots(t), "Collected entries should be removed from the table");
+		assertEquals(1, t.length());
+		assertEquals(kept, t.rawget(1));
+
+		// The userdata is recreated from its instance, even though the original userdata has been collected.
+		assertSame(keptInstance, ((LuaUserdata) t.rawget("kept")).userdata());
+	}
+
+	@Test
+	public void testWeakKeysAreRemoved() throws LuaError {
+		LuaTable t = new LuaTable();
+		t.setMetatable(null, ValueFactory.tableOf(Constants.MODE, valueOf("k")));
+
+		LuaTable keptTable = new LuaTable();
+		LuaUserdata keptUserdata = ValueFactory.userdataOf(new Object());
+		t.rawset(keptTable, valueOf(1));
+		t.rawset(keptUserdata, valueOf(2));
+		for (int i = 0; i < 32; i++) {
+			t.rawset(new LuaTable(), valueOf(i));
+			t.rawset(ValueFactory.userdataOf(new Object()), valueOf(i));
+		}
+
+		collect(t, 2);
+		assertEquals(2, getOccupiedSlots(t), "Collected entries should be removed from the table");
+		assertEquals(valueOf(1), t.rawget(keptTable));
+		assertEquals(valueOf(2), t.rawget(keptUserdata));
+		assertEquals(2, keyCount(t));
+	}
+
+	/**
+	 * Run the garbage collector until a weak table has the expected number of entries.
+	 *
+	 * @param table The table to check.
+	 * @param size  The expected size of the table.
+	 */
+	private static void collect(LuaTable table, int size) {
+		for (int i = 0; i < 20 && (table.size() != size || getOccupiedSlots(table) != size); i++) System.gc();
+	}
+
+	@Test
+	public void testCannotFreezeWeakTable() throws LuaError {
+		LuaTable t = new LuaTable();
+		t.setMetatable(null, ValueFactory.tableOf(Constants.MODE, valueOf("k")));
+		assertThrows(IllegalStateException.class, t::freeze);
+	}
+
+	@Test
+	public void testVersionChangesOnKeyChanges() throws LuaError {
+		LuaTable t = new LuaTable(4, 4);
+		t.rawset(1, valueOf(1));
+		t.rawset("foo", valueOf(1));
+
+		int version = t.getVersion();
+		t.rawset(1, valueOf(2));
+		assertEquals(version, t.getVersion(), "Updating an array value does not change the version");
+
+		t.rawset(2, valueOf(2));
+		assertNotEquals(version, version = t.getVersion(), "Adding an array value changes the version");
+
+		t.rawset(2, Constants.NIL);
+		assertNotEquals(version, version = t.getVersion(), "Removing an array value changes the version");
+
+		t.rawset("bar", valueOf(2));
+		assertNotEquals(version, version = t.getVersion(), "Adding a hash value changes the version");
+
+		t.rawset("bar", Constants.NIL);
+		assertNotEquals(version, version = t.getVersion(), "Removing a hash value changes the version");
+
+		t.setMetatable(null, new LuaTable());
+		assertNotEquals(version, t.getVersion(), "Changing the metatable changes the version");
+	}
+
+	@Test
+	public void testWrapArray() throws LuaError {
+		LuaValue[] values = {valueOf(1), valueOf(2), Constants.NIL, valueOf(4)};
+		LuaTable t = new LuaTable(values, 0);
+		assertEquals(4, getArrayLength(t));
+		assertEquals(valueOf(2), t.rawget(2));
+		assertEquals(Constants.NIL, t.rawget(3));
+		assertEquals(-1, getBorderHint(t), "Arrays with holes are not sequences");
+
+		// The array is copied, so writing to the table does not change it.
+		t.rawset(1, valueOf(10));
+		assertEquals(valueOf(1), values[0]);
+
+		t.setMetatable(null, ValueFactory.tableOf(Constants.MODE, valueOf("v")));
+		t.rawset(3, new LuaTable());
+		assertEquals(valueOf(4), t.rawget(4));
+		assertEquals(Constants.NIL, values[2]);
+	}
+
+	@Test
+	public void testListOfTracksLength() {
+		assertEquals(3, getBorderHint(ValueFactory.listOf(valueOf(1), valueOf(2), valueOf(3))));
+		assertEquals(1, getBorderHint(ValueFactory.listOf(valueOf(1), Constants.NIL)));
+		assertEquals(0, getBorderHint(ValueFactory.listOf()));
+		assertEquals(-1, getBorderHint(ValueFactory.listOf(Constants.NIL, valueOf(2))));
+		assertEquals(2, getBorderHint(ValueFactory.listOf(List.of(valueOf(1), valueOf(2)))));
+	}
+
+	@Test
+	public void testWrapUsesArray() throws LuaError {
+		Object[] values = new Object[]{valueOf(1), valueOf(2), Constants.NIL};
+		LuaTable t = LuaTable.wrap(values);
+
+		assertEquals(2, t.length());
+		assertEquals(2, getBorderHint(t));
+		t.rawset(3, valueOf(3));
+		assertEquals(valueOf(3), values[2], "Array should not be copied");
+
+		// Weak tables store references in the array part, so it must be able to hold them.
+		t.setMetatable(null, ValueFactory.tableOf(Constants.MODE, valueOf("v")));
+		t.rawset(1, new LuaTable());
+		assertEquals(valueOf(2), t.rawget(2));
+	}
+
+	@Test
+	public void testWrapRejectsInvalidArrays() {
+		assertThrows(IllegalArgumentException.class, () -> LuaTable.wrap(new LuaValue[]{valueOf(1)}));
+		assertThrows(IllegalArgumentException.class, () -> LuaTable.wrap(new Object[]{"foo"}));
+		assertThrows(NullPointerException.class, () -> LuaTable.wrap(new Object[]{valueOf(1), null}));
+	}
+
+	@Test
+	public void testListOfRejectsNull() {
+		assertThrows(NullPointerException.class, () -> ValueFactory.listOf(valueOf(1), null));
+		assertThrows(NullPointerException.class, () -> ValueFactory.listOf(Arrays.asList(valueOf(1), null)));
+	}
+
+	@Test
+	public void testTableOfUsesArrayPart() throws LuaError {
+		Map<LuaValue, LuaValue> items = new HashMap<>();
+		for (int i = 1; i <= 100; i++) items.put(valueOf(i), valueOf(i));
+		items.put(valueOf("foo"), valueOf("bar"));
+
+		LuaTable t = ValueFactory.tableOf(items);
+		assertEquals(128, getArrayLength(t));
+		assertEquals(1, getHashLength(t));
+		assertEquals(100, t.length());
+		assertEquals(valueOf("bar"), t.rawget("foo"));
+	}
+
+	@Test
+	public void testRawsetAll() throws LuaError {
+		LuaTable t = new LuaTable(2, 0);
+		t.rawset(1, valueOf("a"));
+
+		LuaValue[] keys = new LuaValue[100];
+		LuaValue[] values = new LuaValue[100];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = valueOf("key" + i);
+			values[i] = valueOf(i);
+		}
+
+		t.rawsetAll(keys, values);
+		assertEquals(128, getHashLength(t));
+		for (int i = 0; i < keys.length; i++) assertEquals(valueOf(i), t.rawget("key" + i));
+		assertEquals(valueOf("a"), t.rawget(1));
+
+		assertThrows(LuaError.class, () -> t.rawsetAll(new LuaValue[]{Constants.NIL}, new LuaValue[]{Constants.TRUE}));
+	}
+
+	@Test
+	public void testLengthAfterAppendAndRemove() throws LuaError {
+		LuaTable t = new LuaTable();
+		for (int i = 1; i <= 100; i++) {
+			t.rawset(t.length() + 1, valueOf(i));
+			assertEquals(i, t.length());
+		}
+
+		for (int i = 100; i > 50; i--) t.rawset(i, Constants.NIL);
+		assertEquals(50, t.length());
+
+		// Introduce a hole, and make sure we fall back to the normal border search.
+		t.rawset(25, Constants.NIL);
+		t.rawset(51, valueOf(51));
+		int length = t.length();
+		assertTrue(length == 24 || length == 51, "Length should be a border");
+	}
+
+	@Test
+	public void testMoveBetweenTables() throws LuaError {
+		LuaTable source = ValueFactory.listOf(valueOf(1), valueOf(2), valueOf(3), valueOf(4));
+		LuaTable dest = new LuaTable(4, 0);
+		dest.rawset(1, valueOf("a"));
+
+		source.move(2, dest, 2, 3);
+		assertEquals(4, dest.length());
+		assertEquals(valueOf("a"), dest.rawget(1));
+		assertEquals(valueOf(2), dest.rawget(2));
+		assertEquals(valueOf(4), dest.rawget(4));
+
+		// Moving into the hash part should behave the same.
+		source.move(1, dest, 10, 2);
+		assertEquals(valueOf(1), dest.rawget(10));
+		assertEquals(valueOf(2), dest.rawget(11));
+	}
+
+	@Test
+	public void testClearKeepsCapacity() throws LuaError {
+		LuaTable t = new LuaTable();
+		for (int i = 1; i <= 10; i++) t.rawset(i, valueOf(i));
+		t.rawset("a", valueOf("b"));
+		int arrayLength = getArrayLength(t), hashLength = getHashLength(t);
+
+		t.clear();
+		assertEquals(0, t.length());
+		assertEquals(Constants.NIL, t.next(Constants.NIL).first());
+		assertEquals(arrayLength, getArrayLength(t));
+		assertEquals(hashLength, getHashLength(t));
+
+		t.rawset(1, valueOf(1));
+		t.rawset("a", valueOf("c"));
+		assertEquals(1, t.length());
+		assertEquals(valueOf("c"), t.rawget("a"));
+
+		t.clear(true);
+		assertEquals(0, getArrayLength(t));
+		assertEquals(0, getHashLength(t));
+		assertEquals(Constants.NIL, t.rawget("a"));
+	}
 }
@@ -27,10 +27,15 @@ package org.squiddev.cobalt.vm;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.squiddev.cobalt.*;
+import org.squiddev.cobalt.compiler.LoadState;
 import org.squiddev.cobalt.function.LibFunction;
 import org.squiddev.cobalt.function.LuaClosure;
 import org.squiddev.cobalt.function.LuaFunction;
 
+import java.io.ByteArrayInputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.squiddev.cobalt.ValueFactory.valueOf;
 
@@ -366,4 +371,26 @@ public class MetatableTest {
 
 	}
 
+	@Test
+	public void testIndexCacheDoesNotRetainTables() throws Exception {
+		LuaFunction getFoo = LoadState.load(
+			state, new ByteArrayInputStream("return (...).foo".getBytes(StandardCharsets.UTF_8)), "=test", new LuaTable()
+		);
+
+		LuaTable index = ValueFactory.tableOf(valueOf("foo"), valueOf(123));
+		LuaTable metatable = ValueFactory.tableOf(Constants.INDEX, index);
+		LuaTable object = new LuaTable();
+		object.setMetatable(state, metatable);
+
+		// Call the function twice, once to populate the cache and once to use it.
+		for (int i = 0; i < 2; i++) assertEquals(valueOf(123), LuaThread.runMain(state, getFoo, object).first());
+
+		WeakReference<LuaTable> indexRef = new WeakReference<>(index);
+		WeakReference<LuaTable> metatableRef = new WeakReference<>(metatable);
+		index = metatable = object = null;
+
+		for (int i = 0; i < 20 && (indexRef.get() != null || metatableRef.get() != null); i++) System.gc();
+		assertNull(indexRef.get(), "__index table should be collected");
+		assertNull(metatableRef.get(), "Metatable should be collected");
+	}
 }
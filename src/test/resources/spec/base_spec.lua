@@ -151,6 +151,72 @@ describe("The base library", function()
 				expect(n):eq(3)
 			end)
 		end)
+
+		it("visits every entry", function()
+			local tbl = { "a", "b", "c", x = "d", y = "e" }
+			local seen, n = {}, 0
+			for k, v in pairs(tbl) do
+				n = n + 1
+				seen[k] = v
+			end
+
+			expect(n):eq(5)
+			expect(seen):same(tbl)
+		end)
+
+		it("sets extra loop variables to nil", function()
+			for k, v, extra, more in pairs({ 1, x = 2 }) do
+				expect(extra):eq(nil)
+				expect(more):eq(nil)
+			end
+		end)
+
+		it("uses the original next :lua>=5.2", function()
+			local original = next
+			local replaced = 0
+			next = function(...) replaced = replaced + 1 return original(...) end
+
+			local n = 0
+			for _ in pairs({ 1, 2, x = 3 }) do n = n + 1 end
+			next = original
+
+			expect(n):eq(3)
+			expect(replaced):eq(0)
+		end)
+
+		it("supports custom iterators", function()
+			local calls = 0
+			local function custom_next(self, k)
+				calls = calls + 1
+				return next(self, k)
+			end
+
+			local n = 0
+			for _ in custom_next, { 1, 2, x = 3 } do n = n + 1 end
+
+			expect(n):eq(3)
+			expect(calls):eq(4)
+		end)
+
+		it("errors on invalid keys from within next", function()
+			local ok, err = xpcall(function()
+				for _ in next, {}, "missing" do end
+			end, debug.traceback)
+
+			expect(ok):eq(false)
+			expect(err):str_match("^[^\n]+:%d+: invalid key to 'next'\nstack traceback:\n\t%[C%]: in ")
+		end)
+
+		it("calls hooks for each iteration", function()
+			local calls = 0
+			debug.sethook(function()
+				if debug.getinfo(2, "f").func == next then calls = calls + 1 end
+			end, "c")
+			for _ in pairs({ 1, 2, x = 3 }) do end
+			debug.sethook()
+
+			expect(calls):eq(4)
+		end)
 	end)
 
 	describe("ipairs", function()
@@ -162,6 +228,28 @@ describe("The base library", function()
 			})
 		end
 
+		it("stops at the first nil", function()
+			local n = 0
+			for i, v, extra in ipairs({ "a", "b", nil, "d" }) do
+				n = n + 1
+				expect(v):eq(("ab"):sub(i, i))
+				expect(extra):eq(nil)
+			end
+
+			expect(n):eq(2)
+		end)
+
+		it("calls hooks for each iteration", function()
+			local inext, calls = ipairs({}), 0
+			debug.sethook(function()
+				if debug.getinfo(2, "f").func == inext then calls = calls + 1 end
+			end, "c")
+			for _ in ipairs({ 1, 2, 3 }) do end
+			debug.sethook()
+
+			expect(calls):eq(4)
+		end)
+
 		it("inext returns nil when nothing left :lua>=5.2", function()
 			local inext = ipairs({})
 			expect(select('#', inext({}, 0))):eq(1)
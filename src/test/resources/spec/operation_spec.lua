@@ -97,4 +97,123 @@ describe("Lua's base operators", function()
 			expect(mk(3) <= mk(2)):eq(false)
 		end)
 	end)
+
+	describe("metamethods", function()
+		it("are observed when added after a failed lookup", function()
+			local mt = {}
+			local a, b = setmetatable({}, mt), setmetatable({}, mt)
+
+			expect.error(function() return a + b end)
+			expect.error(function() return a .. b end)
+			expect.error(function() return a() end)
+
+			mt.__add = function() return "add" end
+			mt.__concat = function() return "concat" end
+			mt.__call = function() return "call" end
+
+			expect(a + b):eq("add")
+			expect(a .. b):eq("concat")
+			expect(a()):eq("call")
+
+			mt.__add, mt.__concat, mt.__call = nil, nil, nil
+			expect.error(function() return a + b end)
+			expect.error(function() return a .. b end)
+			expect.error(function() return a() end)
+		end)
+
+		it("__index functions can recurse deeply :cobalt", function()
+			local t = setmetatable({}, { __index = function(self, k)
+				if k <= 0 then return 0 end
+				return self[k - 1] + 1
+			end })
+
+			expect(t[5000]):eq(5000)
+		end)
+
+		it("__index functions can yield", function()
+			local t = setmetatable({}, { __index = function(self, k) return coroutine.yield(k) end })
+			local u = { t = t }
+
+			local co = coroutine.create(function()
+				local a = t.foo -- OP_GETTABUP
+				local b = u.t[1] -- OP_GETTABLE
+				local c = u.t:bar() -- OP_SELF
+				return a, b, c
+			end)
+
+			expect(coroutine.resume(co)):eq(true, "foo")
+			expect(coroutine.resume(co, "a")):eq(true, 1)
+			expect(coroutine.resume(co, "b")):eq(true, "bar")
+			expect(coroutine.resume(co, function(self) return self == t end)):eq(true, "a", "b", true)
+			expect(coroutine.status(co)):eq("dead")
+		end)
+
+		it("__index functions appear in tracebacks", function()
+			local t = setmetatable({}, { __index = function(self, k) error("no field " .. k, 0) end })
+			local u = { t = t }
+
+			for _, f in ipairs {
+				function() return t.foo end, -- OP_GETTABUP
+				function() return u.t.foo end, -- OP_GETTABLE
+				function() return u.t:foo() end, -- OP_SELF
+			} do
+				local ok, err = xpcall(f, debug.traceback)
+				expect(ok):eq(false)
+				expect(err):str_match("^no field foo\nstack traceback:\n\t%[C%]: in function 'error'\n\t[^\n]+: in metamethod '__index'\n")
+			end
+		end)
+
+		it("__index functions fire call and return hooks", function()
+			local t = setmetatable({}, { __index = function(self, k) return k end })
+
+			local events = {}
+			debug.sethook(function(kind)
+				events[#events + 1] = kind .. " " .. tostring(debug.getinfo(2, "n").name)
+			end, "cr")
+			local value = t.foo
+			debug.sethook()
+
+			expect(value):eq("foo")
+			expect(events):same { "return sethook", "call __index", "return __index", "call sethook" }
+		end)
+
+		it("__index lookups observe changes to the __index chain", function()
+			local Base = {}
+			Base.__index = Base
+			function Base:name() return "base" end
+
+			local Class = setmetatable({}, Base)
+			Class.__index = Class
+
+			local obj = setmetatable({}, Class)
+			local function name(x) return x:name() end
+
+			for _ = 1, 3 do expect(name(obj)):eq("base") end
+
+			-- Defining a method on the subclass shadows the parent's one.
+			function Class:name() return "class" end
+			expect(name(obj)):eq("class")
+
+			-- Redefining a method is observed.
+			function Class:name() return "new class" end
+			expect(name(obj)):eq("new class")
+
+			-- As is removing it.
+			Class.name = nil
+			expect(name(obj)):eq("base")
+
+			-- Instance fields shadow the method.
+			obj.name = function() return "instance" end
+			expect(name(obj)):eq("instance")
+			obj.name = nil
+
+			-- And changing the metatable.
+			setmetatable(Class, { __index = { name = function() return "other" end } })
+			expect(name(obj)):eq("other")
+
+			setmetatable(Class, { __index = function() return function() return "function" end end })
+			expect(name(obj)):eq("function")
+			expect(name(setmetatable({}, Base))):eq("base")
+		end)
+	end)
 end)
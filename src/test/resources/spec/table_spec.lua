@@ -730,6 +730,134 @@ describe("Lua tables", function()
 			end)
 		end)
 
+		it("sorts lists around the insertion sort threshold", function()
+			for n = 10, 30 do
+				local a, b = {}, {}
+				for i = 1, n do a[i] = math.random(1, 10); b[i] = a[i] end
+
+				table.sort(a)
+				check(a)
+
+				table.sort(b, function(x, y) return x > y end)
+				check(b, function(x, y) return x > y end)
+			end
+		end)
+
+		describe("sorts lists of a single type the same as with a comparator", function()
+			local function describe_value(x)
+				if x ~= x then return "nan"
+				elseif x == 0 and type(x) == "number" then return 1 / x > 0 and "0" or "-0"
+				else return tostring(x) end
+			end
+
+			local function check_same(make)
+				for n = 1, 40 do
+					local a, b = make(n), make(n)
+					local ok_a, err_a = pcall(table.sort, a)
+					local ok_b, err_b = pcall(table.sort, b, function(x, y) return x < y end)
+					expect(ok_a):eq(ok_b)
+
+					if ok_a then
+						for i = 1, n do
+							expect(describe_value(a[i])):describe(("Item %d of %d"):format(i, n)):eq(describe_value(b[i]))
+						end
+					end
+				end
+			end
+
+			it("mixed integers and floats", function()
+				check_same(function(n)
+					local t = {}
+					for i = 1, n do t[i] = i % 3 == 0 and (n - i) / 2 or (i * 7) % n end
+					return t
+				end)
+			end)
+
+			it("positive and negative zeros", function()
+				local zero = 0.0
+				check_same(function(n)
+					local t = {}
+					for i = 1, n do t[i] = i % 2 == 0 and -zero or (i % 3) * zero end
+					return t
+				end)
+			end)
+
+			it("NaN", function()
+				check_same(function(n)
+					local t = {}
+					for i = 1, n do t[i] = i % 5 == 0 and 0 / 0 or (i * 7) % n end
+					return t
+				end)
+			end)
+
+			it("strings", function()
+				check_same(function(n)
+					local t = {}
+					for i = 1, n do t[i] = ("\0"):rep(i % 3) .. tostring((i * 7) % n) end
+					return t
+				end)
+			end)
+		end)
+
+		it("errors on invalid sort orders :cobalt", function()
+			for n = 13, 40 do
+				local t = {}
+				for i = 1, n do t[i] = i end
+				expect.error(table.sort, t, function() return true end):str_match("invalid order function for sorting$")
+			end
+		end)
+
+		it("falls back to a heap sort on adversarial inputs", function()
+			-- McIlroy's "killer adversary": values are only fixed when they are compared, in a way that drives a
+			-- quicksort to its worst case.
+			local n = 2000
+			local gas, solid, candidate = n + 1, 0, nil
+			local values, items, comparisons = {}, {}, 0
+			for i = 1, n do values[i], items[i] = gas, i end
+
+			local function compare(x, y)
+				comparisons = comparisons + 1
+				if values[x] == gas and values[y] == gas then
+					if x == candidate then values[x] = solid else values[y] = solid end
+					solid = solid + 1
+				end
+
+				if values[x] == gas then candidate = x elseif values[y] == gas then candidate = y end
+				return values[x] < values[y]
+			end
+
+			table.sort(items, compare)
+			check(items, compare)
+
+			-- A quadratic sort would perform around n^2/2 = 2,000,000 comparisons.
+			expect(comparisons < 200000):describe(("Performed %d comparisons"):format(comparisons)):eq(true)
+		end)
+
+		it("overwrites changes made by the comparator :cobalt", function()
+			local t = { 5, 3, 1, 4, 2 }
+			table.sort(t, function(x, y)
+				t[1], t[6], t.extra = "changed", "appended", true
+				return x < y
+			end)
+
+			expect(t):same { 1, 2, 3, 4, 5, "appended", extra = true }
+		end)
+
+		it("supports yielding in the comparator around the insertion sort threshold :cobalt", function()
+			expect.run_coroutine(function()
+				for n = 10, 30, 4 do
+					local x = {}
+					for i = 1, n do x[i] = (i * 7) % n end
+
+					table.sort(x, function(a, b)
+						coroutine.yield()
+						return a < b
+					end)
+					check(x)
+				end
+			end)
+		end)
+
 		it("supports yielding in the metamethod :cobalt", function()
 			local meta = {
 				__lt = function(a, b)
@@ -881,13 +1009,25 @@ describe("Lua tables", function()
 			expect(table.concat(a, ",", 4)):eq("")
 		end)
 
-		it("avoids integer overflow :!cobalt", function()
+		it("avoids integer overflow", function()
 			expect(table.concat({}, "x", 2^31-1, 2^31-2)):eq("")
 			expect(table.concat({}, "x", -2^31+1, -2^31)):eq("")
 			expect(table.concat({}, "x", 2^31-1, -2^31)):eq("")
 			expect(table.concat({[2^31-1] = "alo"}, "x", 2^31-1, 2^31-1)):eq("alo")
 		end)
 
+		it("converts numbers to strings", function()
+			expect(table.concat({ 1, "a", 2.5, "b", 3 }, ", ")):eq("1, a, 2.5, b, 3")
+
+			local t, expected = {}, {}
+			for i = 1, 100 do
+				t[i] = i % 3 == 0 and "x" or i
+				expected[#expected + 1] = tostring(t[i])
+			end
+			expect(table.concat(t, "-")):eq(table.concat(expected, "-"))
+			expect(table.concat(t, "", 10, 20)):eq("1011x1314x1617x1920")
+		end)
+
 		it("errors on non-strings :!cobalt", function()
 			expect.error(table.concat, {"a", "b", {}})
 				:eq("invalid value (table) at index 3 in table for 'concat'")
@@ -937,10 +1077,48 @@ describe("Lua tables", function()
 		end)
 	end)
 
+	describe("table.clear :cobalt", function()
+		it("removes all entries", function()
+			local mt = {}
+			local t = setmetatable({ 1, 2, 3, a = 1, b = 2 }, mt)
+			table.clear(t)
+			expect(next(t)):eq(nil)
+			expect(#t):eq(0)
+			expect(getmetatable(t)):eq(mt)
+
+			t[1], t.a = "x", "y"
+			expect(t):same { "x", a = "y" }
+		end)
+
+		it("can shrink the table", function()
+			local t = { 1, 2, 3, a = 1 }
+			table.clear(t, true)
+			expect(next(t)):eq(nil)
+
+			t[1] = 1
+			expect(t):same { 1 }
+		end)
+	end)
+
 	describe("table.create :lua>=5.5", function()
 		it("rejects out-of-range lengths", function()
 			expect.error(table.create, -1):str_match("out of range")
 			expect.error(table.create, 0, -1):str_match("out of range")
 		end)
+
+		it("creates an empty table", function()
+			local t = table.create(10, 10)
+			expect(next(t)):eq(nil)
+			expect(#t):eq(0)
+		end)
+
+		it("can fill the array part :cobalt", function()
+			local t = table.create(5, 0, "x")
+			expect(t):same { "x", "x", "x", "x", "x" }
+			expect(#t):eq(5)
+
+			t[6] = "y"
+			expect(#t):eq(6)
+		end)
 	end)
 end)
@@ -98,6 +98,56 @@ describe("The Lua VM", function()
 		end)
 	end)
 
+	describe("returning from Lua functions", function()
+		local function none() return end
+		local function one() return 1 end
+		local function three() return 1, 2, 3 end
+
+		it("returns a fixed number of values", function()
+			local a, b, c = three()
+			expect({ a, b, c }):same { 1, 2, 3 }
+		end)
+
+		it("fills missing values with nil", function()
+			local a, b, c = 1, 2, 3
+			a, b, c = one()
+			expect({ a, b, c }):same { 1 }
+
+			a, b, c = 1, 2, 3
+			a, b, c = none()
+			expect({ a, b, c }):same {}
+		end)
+
+		it("discards extra values", function()
+			local a, b = three()
+			local c = three()
+			expect({ a, b, c }):same { 1, 2, 1 }
+
+			three()
+		end)
+
+		it("returns a variable number of values", function()
+			expect({ three() }):same { 1, 2, 3 }
+			expect(select('#', three())):eq(3)
+			expect(select('#', none())):eq(0)
+			expect({ 0, three() }):same { 0, 1, 2, 3 }
+		end)
+
+		it("calls return hooks", function()
+			local returns = 0
+			debug.sethook(function()
+				if debug.getinfo(2, "f").func == three then returns = returns + 1 end
+			end, "r")
+			local a, b = three()
+			local c, d, e, f = three()
+			debug.sethook()
+
+			expect(returns):eq(2)
+			expect({ a, b }):same { 1, 2 }
+			expect({ c, d, e, f }):same { 1, 2, 3 }
+		end)
+	end)
+
 	describe("error positions", function()
 		it("includes positions when there is a single frame", function()
 			local function f() string.gsub(nil) end